@@ -22,6 +22,7 @@ dependencies {
     implementation("net.dv8tion:JDA:5.6.1") {
         exclude(module="opus-java")
     }
+    implementation("org.xerial:sqlite-jdbc:3.46.1.3")
 }
 
 tasks.named("shadowJar", com.github.jengelman.gradle.plugins.shadow.tasks.ShadowJar::class) {
@@ -37,8 +38,12 @@ tasks.named("shadowJar", com.github.jengelman.gradle.plugins.shadow.tasks.Shadow
         include(dependency("org.jetbrains.kotlin:kotlin-stdlib"))
         include(dependency("com.squareup.okio:okio"))
         include(dependency("com.squareup.okio:okio-jvm"))
+        include(dependency("org.xerial:sqlite-jdbc"))
+    }
+    // sqlite-jdbc loads its native library by package name, so it is neither minimized nor relocated
+    minimize {
+        exclude(dependency("org.xerial:sqlite-jdbc:.*"))
     }
-    minimize()
     relocate("net.dv8tion.jda", "dev.riever.libs.jda")
     relocate("com.neovisionaries", "dev.riever.libs.neovisionaries")
     relocate("okhttp3", "dev.riever.libs.okhttp3")
@@ -0,0 +1,185 @@
+package dev.riever.supersonic;
+
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Delivers cross-chat messages on a shared pool with one lane per destination. Tasks in a lane run one at a time in
+// the order they were dispatched, while a lane stuck on a slow backend only holds up its own tasks.
+public class ChatDispatcher {
+    public static final String DISCORD_LANE = "discord";
+    private static final int THREADS = 4;
+    // A busy lane hands its thread back after this many tasks, so it cannot starve the others
+    private static final int MAX_TASKS_PER_RUN = 32;
+    // A lane that cannot keep up drops its oldest messages past this many, so a stuck backend cannot use up memory
+    private static final int MAX_QUEUED_PER_LANE = 256;
+    private static final long SHUTDOWN_TIMEOUT_SECONDS = 5;
+
+    private record Task(Runnable runnable, CompletableFuture<Void> result) {
+        void run() {
+            try {
+                this.runnable.run();
+                this.result.complete(null);
+            } catch (Throwable e) {
+                this.result.completeExceptionally(e);
+            }
+        }
+    }
+
+    private final Map<String, Lane> lanes = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+    private final Logger logger;
+    private volatile boolean shutdown = false;
+
+    public ChatDispatcher(Logger logger) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "supersonic-dispatch-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.logger = logger;
+    }
+
+    public static String serverLane(RegisteredServer server) {
+        return "server:" + server.getServerInfo().getName();
+    }
+
+    public CompletableFuture<Void> dispatch(RegisteredServer server, Runnable task) {
+        return this.dispatch(serverLane(server), task);
+    }
+
+    // The returned future fails if the task throws, or if it is dropped before it runs
+    public CompletableFuture<Void> dispatch(String lane, Runnable task) {
+        if (this.shutdown) {
+            return CompletableFuture.failedFuture(new RejectedExecutionException("The chat dispatcher is shut down"));
+        }
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        this.lanes.computeIfAbsent(lane, Lane::new).submit(new Task(task, result));
+        return result;
+    }
+
+    public Map<String, Integer> getQueueDepths() {
+        Map<String, Integer> depths = new TreeMap<>();
+        this.lanes.forEach((name, lane) -> depths.put(name, lane.getQueueDepth()));
+        return depths;
+    }
+
+    public long getDroppedCount() {
+        long dropped = 0;
+        for (Lane lane : this.lanes.values()) {
+            dropped += lane.dropped.get();
+        }
+        return dropped;
+    }
+
+    // New tasks are refused, while the lanes finish what is already queued. Whatever is left after the timeout, on a
+    // backend too slow to take it, is dropped.
+    public void shutdown() {
+        this.shutdown = true;
+        this.executor.shutdown();
+        try {
+            if (!this.executor.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                this.logger.warn("Timed out while delivering the remaining chat messages");
+                this.executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            this.executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        for (Lane lane : this.lanes.values()) {
+            lane.failQueued();
+        }
+    }
+
+    private final class Lane {
+        private final String name;
+        private final AtomicLong dropped = new AtomicLong();
+        // Guarded by this
+        private final ArrayDeque<Task> queue = new ArrayDeque<>();
+        private boolean scheduled = false;
+
+        Lane(String name) {
+            this.name = name;
+        }
+
+        void submit(Task task) {
+            Task overflow = null;
+            boolean start = false;
+            synchronized (this) {
+                if (this.queue.size() >= MAX_QUEUED_PER_LANE) {
+                    overflow = this.queue.poll();
+                }
+                this.queue.add(task);
+                if (!this.scheduled) {
+                    this.scheduled = true;
+                    start = true;
+                }
+            }
+            // Futures are only ever completed outside the lock, as their callbacks may dispatch again
+            if (overflow != null) {
+                this.dropped.incrementAndGet();
+                ChatDispatcher.this.logger.debug("Queue for {} is full, dropped its oldest message", this.name);
+                overflow.result().completeExceptionally(new RejectedExecutionException("Dropped as the queue for " + this.name + " is full"));
+            }
+            if (start) {
+                this.start();
+            }
+        }
+
+        private void start() {
+            try {
+                ChatDispatcher.this.executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                this.failQueued();
+            }
+        }
+
+        private void failQueued() {
+            List<Task> tasks;
+            synchronized (this) {
+                tasks = List.copyOf(this.queue);
+                this.queue.clear();
+                this.scheduled = false;
+            }
+            if (!tasks.isEmpty()) {
+                ChatDispatcher.this.logger.debug("Dropped {} message(s) queued for {} on shutdown", tasks.size(), this.name);
+            }
+            for (Task task : tasks) {
+                task.result().completeExceptionally(new RejectedExecutionException("Dropped on shutdown"));
+            }
+        }
+
+        // Once the pool is shut down the lane cannot be scheduled again, so it keeps its thread until it is empty
+        private void drain() {
+            for (int i = 0; i < MAX_TASKS_PER_RUN || ChatDispatcher.this.shutdown; i++) {
+                Task task;
+                synchronized (this) {
+                    task = this.queue.poll();
+                    if (task == null) {
+                        this.scheduled = false;
+                        return;
+                    }
+                }
+                task.run();
+            }
+            this.start();
+        }
+
+        synchronized int getQueueDepth() {
+            return this.queue.size();
+        }
+    }
+}
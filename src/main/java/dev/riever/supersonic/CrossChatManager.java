@@ -2,9 +2,11 @@ package dev.riever.supersonic;
 
 import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
-import com.velocitypowered.api.proxy.ServerConnection;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
-import dev.riever.supersonic.utils.Trie;
+import dev.riever.supersonic.transport.OutboundMessage;
+import dev.riever.supersonic.transport.OutboundScheduler;
+import dev.riever.supersonic.utils.AhoCorasick;
+import dev.riever.supersonic.utils.CharFolding;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
@@ -15,32 +17,128 @@ import net.kyori.adventure.text.format.NamedTextColor;
 import org.slf4j.Logger;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class CrossChatManager {
+    private record ResolvedMentions(Map<String, String> roles, Map<String, String> members, Map<String, String> channels) {}
+
     private final ProxyServer proxyServer;
     private final DiscordBot discordBot;
+    private final DiscordMemberIndex memberIndex;
+    private final DiscordMemberCache memberCache;
+    private final MessageTemplates messageTemplates;
     private final DiscordMentionProcessor discordMentionProcessor;
+    private final ChatDispatcher dispatcher;
     private final Logger logger;
 
     private final String mentionRegex = "<@&(?<role>\\d+)>|<@(?<user>\\d+)>|<#(?<channel>\\d+)>";
     private final Pattern mentionPattern = Pattern.compile(mentionRegex);
 
-    public CrossChatManager(ProxyServer proxyServer, DiscordBot discordBot, Logger logger) {
+    public CrossChatManager(
+            ProxyServer proxyServer,
+            DiscordBot discordBot,
+            CharFolding mentionFolding,
+            DiscordMemberCache memberCache,
+            MessageTemplates messageTemplates,
+            Logger logger
+    ) {
         this.proxyServer = proxyServer;
         this.discordBot = discordBot;
-        this.discordMentionProcessor = new DiscordMentionProcessor(logger);
+        this.memberIndex = new DiscordMemberIndex(mentionFolding);
+        this.memberCache = memberCache;
+        this.messageTemplates = messageTemplates;
+        this.discordMentionProcessor = new DiscordMentionProcessor(this.memberIndex, logger);
+        this.dispatcher = new ChatDispatcher(logger);
         this.logger = logger;
     }
 
-    public String discordToMinecraft(Member sender, String message, RegisteredServer destServer) {
+    // The message is rendered once and the same component is handed to every server's lane, so the sends run in
+    // parallel and a slow server only delays its own delivery
+    public CompletableFuture<String> discordToMinecraft(Member sender, String message, Collection<RegisteredServer> destServers) {
+        return this.renderDiscordMessage(sender, message).thenCompose(rendered -> {
+            Map<String, CompletableFuture<Boolean>> deliveries = new LinkedHashMap<>();
+            for (RegisteredServer destServer : destServers) {
+                String serverName = destServer.getServerInfo().getName();
+                deliveries.put(serverName, this.dispatcher.dispatch(destServer, () -> destServer.sendMessage(rendered))
+                        .handle((ignored, error) -> {
+                            if (error != null) {
+                                this.logger.error("Failed to send a message to {}", serverName, error);
+                            }
+                            return error == null;
+                        }));
+            }
+            return CompletableFuture.allOf(deliveries.values().toArray(CompletableFuture[]::new)).thenApply(ignored -> {
+                List<String> sent = new ArrayList<>();
+                List<String> failed = new ArrayList<>();
+                deliveries.forEach((serverName, delivered) -> (delivered.join() ? sent : failed).add("`" + serverName + "`"));
+                StringBuilder reply = new StringBuilder();
+                if (!sent.isEmpty()) {
+                    reply.append("Message sent to ").append(String.join(", ", sent)).append(": ").append(message);
+                }
+                if (!failed.isEmpty()) {
+                    if (!reply.isEmpty()) {
+                        reply.append('\n');
+                    }
+                    reply.append("Failed to send the message to ").append(String.join(", ", failed)).append('.');
+                }
+                return reply.toString();
+            });
+        });
+    }
+
+    // Mentions are resolved before rendering, and the message is only rendered once all of them are known
+    private CompletableFuture<Component> renderDiscordMessage(Member sender, String message) {
         Guild guild = this.discordBot.getGuild();
-        TextComponent.Builder result = Component.text()
-                .append(Component.text("[Discord]", NamedTextColor.GOLD))
-                .appendSpace()
-                .append(Component.text(this.discordBot.getDisplayName(sender), NamedTextColor.GREEN))
-                .append(Component.text(": "));
+        Set<String> roleIds = new HashSet<>();
+        Set<String> userIds = new HashSet<>();
+        Set<String> channelIds = new HashSet<>();
+        Matcher idMatcher = this.mentionPattern.matcher(message);
+        while (idMatcher.find()) {
+            if (idMatcher.group("role") != null) {
+                roleIds.add(idMatcher.group("role"));
+            } else if (idMatcher.group("user") != null) {
+                userIds.add(idMatcher.group("user"));
+            } else if (idMatcher.group("channel") != null) {
+                channelIds.add(idMatcher.group("channel"));
+            }
+        }
+        String senderName = DiscordBot.getDisplayName(sender);
+        // Roles and channels are read from JDA's cache; only members may need a request
+        CompletableFuture<Map<String, String>> roleNames = CompletableFuture.completedFuture(this.resolveRoles(guild, roleIds));
+        CompletableFuture<Map<String, String>> memberNames = this.memberCache.resolve(guild, userIds);
+        CompletableFuture<Map<String, String>> channelNames = CompletableFuture.completedFuture(this.resolveChannels(guild, channelIds));
+        return CompletableFuture.allOf(roleNames, memberNames, channelNames).thenApply(ignored -> {
+            ResolvedMentions resolved = new ResolvedMentions(roleNames.join(), memberNames.join(), channelNames.join());
+            return this.renderDiscordMessage(senderName, message, resolved);
+        });
+    }
+
+    private Map<String, String> resolveRoles(Guild guild, Set<String> roleIds) {
+        Map<String, String> roleNames = new HashMap<>();
+        for (String roleId : roleIds) {
+            Role role = guild.getRoleById(roleId);
+            if (role != null) {
+                roleNames.put(roleId, role.getName());
+            }
+        }
+        return roleNames;
+    }
+
+    private Map<String, String> resolveChannels(Guild guild, Set<String> channelIds) {
+        Map<String, String> channelNames = new HashMap<>();
+        for (String channelId : channelIds) {
+            Channel channel = guild.getJDA().getChannelById(Channel.class, channelId);
+            if (channel != null) {
+                channelNames.put(channelId, channel.getName());
+            }
+        }
+        return channelNames;
+    }
+
+    private Component renderDiscordMessage(String senderName, String message, ResolvedMentions resolved) {
+        TextComponent.Builder result = Component.text();
         Matcher matcher = this.mentionPattern.matcher(message);
         int lastMentionIndex = 0;
         while (matcher.find()) {
@@ -49,23 +147,23 @@ public class CrossChatManager {
             String userId = matcher.group("user");
             String channelId = matcher.group("channel");
             if (roleId != null) {
-                Role role = guild.getRoleById(roleId);
-                if (role != null) {
-                    result.append(Component.text("@" + role.getName(), NamedTextColor.AQUA));
+                String roleName = resolved.roles().get(roleId);
+                if (roleName != null) {
+                    result.append(Component.text("@" + roleName, NamedTextColor.AQUA));
                 } else {
                     result.append(Component.text("<@&" + roleId + ">"));
                 }
             } else if (userId != null) {
-                Member member = guild.retrieveMemberById(userId).complete();
-                if (member != null) {
-                    result.append(Component.text("@" + this.discordBot.getDisplayName(member), NamedTextColor.DARK_AQUA));
+                String memberName = resolved.members().get(userId);
+                if (memberName != null) {
+                    result.append(Component.text("@" + memberName, NamedTextColor.DARK_AQUA));
                 } else {
                     result.append(Component.text("<@" + userId + ">"));
                 }
             } else if (channelId != null) {
-                Channel channel = guild.getJDA().getChannelById(Channel.class, channelId);
-                if (channel != null) {
-                    result.append(Component.text("#" + channel.getName(), NamedTextColor.GRAY));
+                String channelName = resolved.channels().get(channelId);
+                if (channelName != null) {
+                    result.append(Component.text("#" + channelName, NamedTextColor.GRAY));
                 } else {
                     result.append(Component.text("<#" + channelId + ">"));
                 }
@@ -73,126 +171,170 @@ public class CrossChatManager {
             lastMentionIndex = matcher.end();
         }
         result.append(Component.text(message.substring(lastMentionIndex)));
-        destServer.sendMessage(result.build());
-        String serverName = destServer.getServerInfo().getName();
-        return "Message sent to `" + serverName + "`: " + message;
+        return this.messageTemplates.chatFromDiscord(senderName, result.build());
     }
 
-    public TextComponent minecraftToDiscord(Player sender, String message) {
+    public Component minecraftToDiscord(Player sender, String message) {
         DiscordMentionProcessor.MessagePair messagePair = this.discordMentionProcessor.process(message);
         TextComponent minecraftMessage = messagePair.minecraftMessage();
         String discordMessage = messagePair.discordMessage();
         String username = sender.getUsername();
-        RegisteredServer server = sender.getCurrentServer()
-                .map(ServerConnection::getServer)
+        String serverName = sender.getCurrentServer()
+                .map(connection -> connection.getServerInfo().getName())
                 .orElse(null);
-        String sourceForDiscord = "**" + username + "**" + (server != null ? " from `" + server.getServerInfo().getName() + "`" : "");
-        this.discordBot.sendMessage(sourceForDiscord + ": " + discordMessage);
-        return Component.text()
-                .append(Component.text(username, NamedTextColor.GREEN))
-                .append(Component.text(" to "))
-                .append(Component.text("Discord", NamedTextColor.GOLD))
-                .append(Component.text(": "))
-                .append(minecraftMessage)
-                .build();
+        if (this.discordBot.relaysWithAuthors()) {
+            this.discordBot.sendMessage(new OutboundMessage(
+                    discordMessage,
+                    this.messageTemplates.webhookUsername(username),
+                    this.messageTemplates.webhookAvatarUrl(username, sender.getUniqueId()),
+                    messagePair.mentionedUserIds()
+            ), OutboundScheduler.Priority.CHAT);
+        } else {
+            this.discordBot.sendMessage(this.messageTemplates.chatToDiscord(username, serverName, discordMessage),
+                    OutboundScheduler.Priority.CHAT);
+        }
+        return this.messageTemplates.chatEcho(username, minecraftMessage);
+    }
+
+    public List<String> suggestMentions(String prefix) {
+        List<DiscordMemberIndex.Mention> mentions = this.memberIndex.complete(prefix);
+        List<String> suggestions = new ArrayList<>(mentions.size());
+        for (DiscordMemberIndex.Mention mention : mentions) {
+            suggestions.add("@" + mention.name());
+        }
+        return suggestions;
     }
 
     public void addDiscordMembers(List<Member> memberList) {
+        List<DiscordMemberIndex.MemberEntry> entries = new ArrayList<>(memberList.size());
         for (Member member : memberList) {
-            this.addDiscordMember(member);
+            entries.add(DiscordMemberIndex.MemberEntry.of(member));
+            this.memberCache.put(member);
         }
+        this.memberIndex.addMembers(entries);
     }
 
     public void addDiscordMember(Member member) {
-        this.discordMentionProcessor.addMember(member);
+        this.memberIndex.addMember(DiscordMemberIndex.MemberEntry.of(member));
+        this.memberCache.put(member);
     }
 
-    public void removeDiscordMember(Member member) {
-        this.discordMentionProcessor.removeMember(member);
+    public void updateDiscordMember(Member member) {
+        this.memberCache.put(member);
+        this.memberIndex.updateMember(DiscordMemberIndex.MemberEntry.of(member));
     }
-}
 
-final class DiscordMentionProcessor {
-    record MessagePair(TextComponent minecraftMessage, String discordMessage) {}
-    record Mention(Member member, boolean isNickname) {}
-    private final Trie<Mention> memberTrie;
-    private final Logger logger;
+    public void removeDiscordMember(Member member) {
+        this.memberIndex.removeMember(member.getId());
+    }
 
-    public DiscordMentionProcessor(Logger logger) {
-        this.memberTrie = new Trie<>();
-        this.logger = logger;
+    public void forgetDiscordMember(String memberId) {
+        this.memberIndex.removeMember(memberId);
+        this.memberCache.invalidate(memberId);
     }
 
-    public void addMembers(List<Member> memberList) {
-        for (Member member : memberList) {
-            this.addMember(member);
-        }
+    public DiscordMemberIndex getMemberIndex() {
+        return this.memberIndex;
     }
 
-    public void addMember(Member member) {
-        String nickname = member.getNickname();
-        if (nickname != null) {
-            this.memberTrie.insert(member.getNickname(), new Mention(member, true));
-        }
-        this.memberTrie.insert(member.getEffectiveName(), new Mention(member, false));
+    public ChatDispatcher getDispatcher() {
+        return this.dispatcher;
     }
 
-    public void removeMember(Member member) {
-        String nickname = member.getNickname();
-        if (nickname != null) {
-            this.memberTrie.remove(member.getNickname());
-        }
-        this.memberTrie.remove(member.getEffectiveName());
+    public void shutdown() {
+        this.dispatcher.shutdown();
+        this.memberIndex.shutdown();
     }
+}
 
-    public Mention findMention(String message) {
-        Mention mention = this.memberTrie.search(message, false);
-        if (mention == null) {
-            mention = this.memberTrie.search(message, true);
-        }
-        return mention;
+final class DiscordMentionProcessor {
+    record MessagePair(TextComponent minecraftMessage, String discordMessage, Set<String> mentionedUserIds) {}
+    private final DiscordMemberIndex memberIndex;
+    private final Logger logger;
+
+    public DiscordMentionProcessor(DiscordMemberIndex memberIndex, Logger logger) {
+        this.memberIndex = memberIndex;
+        this.logger = logger;
     }
 
     public MessagePair process(String message) {
-        StringBuilder discordBuilder = new StringBuilder();
+        // Everything below reads the one snapshot, so concurrent member updates never tear a lookup
+        AhoCorasick<DiscordMemberIndex.Mention> automaton = this.memberIndex.getSnapshot().mentionAutomaton();
+        CharFolding folding = this.memberIndex.getFolding();
+        StringBuilder discordBuilder = new StringBuilder(message.length() + 16);
+        Set<String> mentionedUserIds = new HashSet<>();
         TextComponent.Builder minecraftBuilder = Component.text();
-        int lastIndex = 0;
-        while (true) {
-            int mentionIndex = message.indexOf("@", lastIndex);
-            if (mentionIndex == -1) {
-                discordBuilder.append(message.substring(lastIndex));
-                minecraftBuilder.append(Component.text(message.substring(lastIndex)));
-                break;
+        int length = message.length();
+        // State of the longest name found so far for each '@' of the current token
+        int[] longestMatches = null;
+        boolean tokenHasMatch = false;
+        int tokenStart = 0;
+        int emittedIndex = 0;
+        int state = AhoCorasick.ROOT;
+        for (int i = 0; i <= length; i++) {
+            if (i == length || Character.isWhitespace(message.charAt(i))) {
+                if (tokenHasMatch) {
+                    emittedIndex = this.emitMentions(automaton, message, tokenStart, i, emittedIndex,
+                            longestMatches, discordBuilder, minecraftBuilder, mentionedUserIds);
+                    tokenHasMatch = false;
+                }
+                state = AhoCorasick.ROOT;
+                tokenStart = i + 1;
+                continue;
             }
-            discordBuilder.append(message, lastIndex, mentionIndex);
-            minecraftBuilder.append(Component.text(message.substring(lastIndex, mentionIndex)));
-            int endIndex = mentionIndex + 1;
-            while (endIndex < message.length()) {
-                if (Character.isWhitespace(message.charAt(endIndex))) {
-                    break;
+            state = automaton.next(state, folding.fold(message.charAt(i)));
+            for (int out = automaton.output(state); out != AhoCorasick.NONE; out = automaton.nextOutput(out)) {
+                int start = i + 1 - automaton.depth(out);
+                if (start < tokenStart) {
+                    continue;
                 }
-                endIndex++;
+                if (longestMatches == null) {
+                    longestMatches = new int[length];
+                    Arrays.fill(longestMatches, AhoCorasick.NONE);
+                }
+                longestMatches[start] = out;
+                tokenHasMatch = true;
             }
-            String mentionMessage = message.substring(mentionIndex + 1, endIndex);
-            Mention mention = this.findMention(mentionMessage);
-            if (mention != null) {
-                Member member = mention.member;
-                discordBuilder.append("<@");
-                discordBuilder.append(member.getId());
-                discordBuilder.append(">");
-                String mentionedName = (Objects.requireNonNull(mention.isNickname() ? member.getNickname() : member.getEffectiveName()));
-                minecraftBuilder.append(Component.text("@" + mentionedName, NamedTextColor.AQUA));
-                int mentionLength = mentionedName.length();
-                endIndex = mentionIndex + mentionLength + 1;
-            } else {
-                discordBuilder.append(message, mentionIndex, endIndex);
-                minecraftBuilder.append(Component.text(message.substring(mentionIndex, endIndex)));
+        }
+        if (emittedIndex < length) {
+            discordBuilder.append(message, emittedIndex, length);
+            minecraftBuilder.append(Component.text(message.substring(emittedIndex)));
+        }
+        return new MessagePair(minecraftBuilder.build(), discordBuilder.toString(), Set.copyOf(mentionedUserIds));
+    }
+
+    // Resolves the mentions of one whitespace-delimited token from left to right, taking the longest name at each '@'
+    private int emitMentions(
+            AhoCorasick<DiscordMemberIndex.Mention> automaton,
+            String message,
+            int tokenStart,
+            int tokenEnd,
+            int emittedIndex,
+            int[] longestMatches,
+            StringBuilder discordBuilder,
+            TextComponent.Builder minecraftBuilder,
+            Set<String> mentionedUserIds
+    ) {
+        int index = tokenStart;
+        while (index < tokenEnd) {
+            int match = longestMatches[index];
+            if (match == AhoCorasick.NONE) {
+                index++;
+                continue;
             }
-            lastIndex = endIndex;
-            if (endIndex == message.length()) {
-                break;
+            if (emittedIndex < index) {
+                discordBuilder.append(message, emittedIndex, index);
+                minecraftBuilder.append(Component.text(message.substring(emittedIndex, index)));
             }
+            DiscordMemberIndex.Mention mention = automaton.value(match);
+            discordBuilder.append("<@").append(mention.memberId()).append('>');
+            mentionedUserIds.add(mention.memberId());
+            this.memberIndex.recordMention(mention.memberId());
+            minecraftBuilder.append(Component.text("@" + mention.name(), NamedTextColor.AQUA));
+            index += automaton.depth(match);
+            emittedIndex = index;
         }
-        return new MessagePair(minecraftBuilder.build(), discordBuilder.toString());
+        Arrays.fill(longestMatches, tokenStart, tokenEnd, AhoCorasick.NONE);
+        return emittedIndex;
     }
 }
@@ -1,30 +1,46 @@
 package dev.riever.supersonic;
 
-import com.velocitypowered.api.proxy.Player;
 import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
+import dev.riever.supersonic.storage.PlayerIdentity;
+import dev.riever.supersonic.transport.ChannelTransport;
+import dev.riever.supersonic.transport.DiscordTransport;
+import dev.riever.supersonic.transport.MessageBatcher;
+import dev.riever.supersonic.transport.OutboundMessage;
+import dev.riever.supersonic.transport.OutboundScheduler;
+import dev.riever.supersonic.transport.OutboundScheduler.Priority;
+import dev.riever.supersonic.utils.CharFolding;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.JDABuilder;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Role;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.update.GuildMemberUpdateEvent;
+import net.dv8tion.jda.api.events.session.ReadyEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
 import net.dv8tion.jda.api.hooks.ListenerAdapter;
+import net.dv8tion.jda.api.interactions.InteractionHook;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
 import net.dv8tion.jda.api.requests.GatewayIntent;
+import net.dv8tion.jda.api.requests.RestAction;
 import org.slf4j.Logger;
 
 import javax.annotation.Nonnull;
+import java.nio.file.Path;
 import java.util.*;
 
 import static net.dv8tion.jda.api.interactions.commands.OptionType.BOOLEAN;
 import static net.dv8tion.jda.api.interactions.commands.OptionType.STRING;
 
 public class DiscordBot {
+    // Members matching the role are added to the index this many at a time while they are loaded
+    private static final int MEMBER_BATCH_SIZE = 1000;
+
     private final String token;
     private final String channelId;
     private final String roleId;
@@ -32,14 +48,37 @@ public class DiscordBot {
     private final ProxyServer proxyServer;
     private final CrossChatManager crossChatManager;
     private final PlayerAuthManager playerAuthManager;
+    private final DiscordTransport botTransport;
+    private final DiscordTransport relayTransport;
+    private final OutboundScheduler outboundScheduler;
+    private final MessageBatcher chatBatcher;
+    private final MessageBatcher presenceBatcher;
+    private final ServerListing serverListing;
+    private final StatusBoard statusBoard;
+    private final DiscordMemberSnapshotStore memberSnapshotStore;
     private final Logger logger;
 
-    private JDA jda;
+    private volatile JDA jda;
+    private volatile boolean shutdown = false;
+    // Members restored from the snapshot, checked against the live members once they are loaded
+    private volatile Set<String> snapshotMemberIds = Set.of();
+    // Lowercase group name to server names, replaced on reload
+    private volatile Map<String, List<String>> serverGroups = Map.of();
 
     public DiscordBot(
             String token,
             String channelId,
             String roleId,
+            CharFolding mentionFolding,
+            DiscordMemberCache memberCache,
+            MessageTemplates messageTemplates,
+            int batchWindowMillis,
+            DiscordTransport relayTransport,
+            OutboundScheduler outboundScheduler,
+            ServerStatusPoller statusPoller,
+            boolean statusBoard,
+            int statusBoardInterval,
+            Path dataDirectory,
             ProxyServer proxyServer,
             PlayerAuthManager playerAuthManager,
             Logger logger
@@ -49,25 +88,53 @@ public class DiscordBot {
         this.roleId = roleId;
         this.logger = logger;
         this.proxyServer = proxyServer;
-        this.crossChatManager = new CrossChatManager(proxyServer, this, logger);
+        this.crossChatManager = new CrossChatManager(proxyServer, this, mentionFolding, memberCache, messageTemplates, logger);
         this.playerAuthManager = playerAuthManager;
+        this.botTransport = new ChannelTransport(this::getChannel);
+        this.relayTransport = Objects.requireNonNullElse(relayTransport, this.botTransport);
+        this.outboundScheduler = outboundScheduler;
+        this.chatBatcher = new MessageBatcher(message -> this.dispatch(Priority.CHAT, message), batchWindowMillis, logger);
+        this.presenceBatcher = new MessageBatcher(message -> this.dispatch(Priority.PRESENCE, message), batchWindowMillis, logger);
+        this.serverListing = new ServerListing(proxyServer, statusPoller);
+        this.statusBoard = statusBoard
+                ? new StatusBoard(this::getChannel, outboundScheduler, this.serverListing, dataDirectory.resolve("status-board.txt"), statusBoardInterval, logger)
+                : null;
+        this.memberSnapshotStore = new DiscordMemberSnapshotStore(dataDirectory.resolve("members.bin"), logger);
     }
 
+    // Returns right away. Logging in happens on its own thread, since it makes a blocking request and would hold up
+    // proxy startup for as long as Discord is unreachable. Outgoing messages wait in the outbound queues until the
+    // gateway is ready.
     public void initialize() {
-        this.jda = JDABuilder.createLight(token)
-                .enableIntents(GatewayIntent.GUILD_MEMBERS)
-                .build();
-        try {
-            this.jda.awaitReady();
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        }
-        this.jda.addEventListener(
-                new CommandListener(this, this.proxyServer, this.crossChatManager, this.logger),
-                new MemberRoleListener(this.crossChatManager, this.roleId, this.logger)
-        );
-        List<Member> memberList = this.getGuild().findMembersWithRoles(this.getRole()).get();
-        this.crossChatManager.addDiscordMembers(memberList);
+        this.restoreMembers();
+        Thread thread = new Thread(() -> {
+            try {
+                JDA jda = JDABuilder.createLight(token)
+                        .enableIntents(GatewayIntent.GUILD_MEMBERS)
+                        .addEventListeners(
+                                new ReadyListener(this),
+                                new CommandListener(this, this.proxyServer, this.crossChatManager, this.logger),
+                                new MemberRoleListener(this.crossChatManager, this.roleId, this.logger)
+                        )
+                        .build();
+                this.jda = jda;
+                // Shut down while logging in
+                if (this.shutdown) {
+                    jda.shutdown();
+                }
+            } catch (RuntimeException e) {
+                this.logger.error("Failed to log in to Discord", e);
+            }
+        }, "supersonic-discord-login");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // The event may come before build() returns on the login thread, hence the JDA instance passed in
+    void onReady(JDA jda) {
+        this.jda = jda;
+        this.outboundScheduler.open();
+        this.loadMembers();
 
         // Initialize commands
         this.jda.updateCommands().addCommands(
@@ -76,14 +143,68 @@ public class DiscordBot {
         ).queue();
         this.getGuild().updateCommands().addCommands(
                 Commands.slash("say", "Send a system message to a Minecraft server")
-                        .addOption(STRING, "server", "Name of the server to send a message to", true)
+                        .addOption(STRING, "server", "A server, a comma-separated list of servers, a server group or all", true)
                         .addOption(STRING, "content", "Message to send", true),
                 Commands.slash("auth", "Authenticates a Minecraft account")
                         .addOption(STRING, "code", "The one-time passcode displayed on screen", true)
         ).queue();
+
+        if (this.statusBoard != null) {
+            this.statusBoard.initialize();
+        }
+        this.logger.info("Connected to Discord");
     }
 
-    public String getDisplayName(@Nonnull Member member) {
+    private void restoreMembers() {
+        long start = System.nanoTime();
+        DiscordMemberSnapshotStore.Loaded loaded = this.memberSnapshotStore.load(this.roleId);
+        if (loaded == null) {
+            return;
+        }
+        this.crossChatManager.getMemberIndex().addMembers(loaded.members());
+        Set<String> ids = new HashSet<>();
+        for (DiscordMemberIndex.MemberEntry entry : loaded.members()) {
+            ids.add(entry.id());
+        }
+        this.snapshotMemberIds = ids;
+        this.logger.info("Restored {} member(s) from a snapshot saved {} minute(s) ago in {} ms",
+                loaded.members().size(),
+                (System.currentTimeMillis() - loaded.savedAtMillis()) / 60_000,
+                (System.nanoTime() - start) / 1_000_000);
+    }
+
+    // Members arrive in chunks and are indexed in batches, so the index is rebuilt once per batch rather than once
+    // per member, and mentions start resolving before the whole guild is loaded
+    private void loadMembers() {
+        List<Member> batch = new ArrayList<>();
+        Set<String> liveIds = new HashSet<>();
+        this.getGuild().loadMembers(member -> {
+            if (member.getRoles().stream().anyMatch(role -> role.getId().equals(this.roleId))) {
+                batch.add(member);
+                liveIds.add(member.getId());
+                if (batch.size() >= MEMBER_BATCH_SIZE) {
+                    this.crossChatManager.addDiscordMembers(new ArrayList<>(batch));
+                    batch.clear();
+                }
+            }
+        }).onSuccess(ignored -> {
+            this.crossChatManager.addDiscordMembers(new ArrayList<>(batch));
+            batch.clear();
+            // Restored members that left or lost the role while we were offline
+            Set<String> stale = new HashSet<>(this.snapshotMemberIds);
+            stale.removeAll(liveIds);
+            this.crossChatManager.getMemberIndex().removeMembers(stale);
+            this.snapshotMemberIds = Set.of();
+            this.saveMembers();
+            this.logger.info("Loaded {} member(s) with the relay role, {} restored member(s) were stale", liveIds.size(), stale.size());
+        }).onError(error -> this.logger.error("Failed to load the guild members", error));
+    }
+
+    private void saveMembers() {
+        this.memberSnapshotStore.save(this.roleId, this.crossChatManager.getMemberIndex().getSnapshot());
+    }
+
+    public static String getDisplayName(@Nonnull Member member) {
         String displayName = member.getNickname();
         if (displayName == null) {
             displayName = member.getEffectiveName();
@@ -91,8 +212,54 @@ public class DiscordBot {
         return displayName;
     }
 
-    public void sendMessage(String message) {
-        this.getChannel().sendMessage(message).queue();
+    public void sendMessage(String message, Priority priority) {
+        this.sendMessage(OutboundMessage.of(message), priority);
+    }
+
+    public void sendMessage(OutboundMessage message, Priority priority) {
+        switch (priority) {
+            case CHAT -> this.chatBatcher.submit(message);
+            case PRESENCE -> this.presenceBatcher.submit(message);
+            default -> this.dispatch(priority, message);
+        }
+    }
+
+    // Interaction responses skip ahead of chat and presence traffic
+    public void queueInteraction(RestAction<?> action) {
+        this.outboundScheduler.submit(Priority.INTERACTION, action::submit);
+    }
+
+    public void onServerStatusChanged() {
+        if (this.statusBoard != null) {
+            this.statusBoard.markDirty();
+        }
+    }
+
+    // Whether relayed chat may carry its own author, instead of naming the player in the content
+    public boolean relaysWithAuthors() {
+        return this.relayTransport.supportsAuthors();
+    }
+
+    private void dispatch(Priority priority, OutboundMessage message) {
+        this.outboundScheduler.submit(priority, message, message.hasAuthor() ? this.relayTransport : this.botTransport);
+    }
+
+    public void shutdown() {
+        this.shutdown = true;
+        this.crossChatManager.shutdown();
+        this.chatBatcher.shutdown();
+        this.presenceBatcher.shutdown();
+        // After the batchers, so their last messages are handed to JDA before it shuts down
+        this.outboundScheduler.shutdown();
+        this.relayTransport.shutdown();
+        if (this.statusBoard != null) {
+            this.statusBoard.shutdown();
+        }
+        // Keeps the role changes seen since the members were loaded
+        this.saveMembers();
+        if (this.jda != null) {
+            this.jda.shutdown();
+        }
     }
 
     public TextChannel getChannel() {
@@ -122,6 +289,49 @@ public class DiscordBot {
     public PlayerAuthManager getPlayerAuthManager() {
         return this.playerAuthManager;
     }
+
+    public OutboundScheduler getOutboundScheduler() {
+        return this.outboundScheduler;
+    }
+
+    public MessageBatcher getChatBatcher() {
+        return this.chatBatcher;
+    }
+
+    public MessageBatcher getPresenceBatcher() {
+        return this.presenceBatcher;
+    }
+
+    public ServerListing getServerListing() {
+        return this.serverListing;
+    }
+
+    public StatusBoard getStatusBoard() {
+        return this.statusBoard;
+    }
+
+    public Map<String, List<String>> getServerGroups() {
+        return this.serverGroups;
+    }
+
+    public void setServerGroups(Map<String, List<String>> serverGroups) {
+        Map<String, List<String>> groups = new HashMap<>();
+        serverGroups.forEach((name, servers) -> groups.put(name.toLowerCase(Locale.ROOT), List.copyOf(servers)));
+        this.serverGroups = Map.copyOf(groups);
+    }
+}
+
+final class ReadyListener extends ListenerAdapter {
+    private final DiscordBot bot;
+
+    public ReadyListener(DiscordBot bot) {
+        this.bot = bot;
+    }
+
+    @Override
+    public void onReady(@Nonnull ReadyEvent event) {
+        this.bot.onReady(event.getJDA());
+    }
 }
 
 final class CommandListener extends ListenerAdapter {
@@ -129,8 +339,6 @@ final class CommandListener extends ListenerAdapter {
     private final DiscordBot bot;
     private final Logger logger;
 
-    private final Map<String, String> hostMap;
-
     private final CrossChatManager crossChatManager;
 
     public CommandListener(DiscordBot bot, ProxyServer proxyServer, CrossChatManager crossChatManager, Logger logger) {
@@ -138,16 +346,6 @@ final class CommandListener extends ListenerAdapter {
         this.bot = bot;
         this.logger = logger;
         this.crossChatManager = crossChatManager;
-        this.hostMap = new HashMap<>();
-        this.initializeHostMap();
-    }
-
-    public void initializeHostMap() {
-        this.proxyServer.getConfiguration().getForcedHosts().forEach((hostname, serverNameList) -> {
-            for (String serverName : serverNameList) {
-                this.hostMap.put(serverName, hostname);
-            }
-        });
     }
 
     @Override
@@ -160,50 +358,87 @@ final class CommandListener extends ListenerAdapter {
             String channelId = this.bot.getChannelId();
             boolean hasRole = member.getRoles().stream().anyMatch(role -> role.getId().equals(roleId));
             if (!hasRole) {
-                event.reply("You need the role <@&" + roleId + "> to use this command. Ask your admin!")
-                        .setEphemeral(true)
-                        .queue();
+                this.bot.queueInteraction(event.reply("You need the role <@&" + roleId + "> to use this command. Ask your admin!")
+                        .setEphemeral(true));
                 return;
             }
             if (!Objects.requireNonNullElse(event.getChannelId(), "").equals(channelId)) {
-                event.reply("This command can only be used in <#" + channelId + ">.")
-                        .setEphemeral(true)
-                        .queue();
+                this.bot.queueInteraction(event.reply("This command can only be used in <#" + channelId + ">.")
+                        .setEphemeral(true));
                 return;
             }
-            RegisteredServer server = this.proxyServer.getServer(serverName).orElse(null);
-            if (server != null) {
-                String replyMessage = this.crossChatManager.discordToMinecraft(member, content, server);
-                event.reply(replyMessage).queue();
-            } else {
-                event.reply("Server not found.").setEphemeral(true).queue();
+            Set<String> unknown = new TreeSet<>();
+            Collection<RegisteredServer> servers = this.resolveServers(serverName, unknown);
+            if (!unknown.isEmpty() || servers.isEmpty()) {
+                String message = unknown.isEmpty()
+                        ? "No servers to send the message to."
+                        : "Server or group not found: " + String.join(", ", unknown);
+                this.bot.queueInteraction(event.reply(message).setEphemeral(true));
+                return;
             }
+            // Acknowledge right away; the message is delivered and the response edited once mentions are resolved
+            this.bot.queueInteraction(event.deferReply());
+            InteractionHook hook = event.getHook();
+            this.crossChatManager.discordToMinecraft(member, content, servers)
+                    .exceptionally(error -> {
+                        this.logger.error("Failed to send a message to {}", serverName, error);
+                        return "Failed to send the message.";
+                    })
+                    .thenAccept(replyMessage -> this.bot.queueInteraction(hook.editOriginal(replyMessage)));
         } else if (event.getName().equals("servers")) {
             OptionMapping option = event.getOption("ephemeral");
             boolean ephemeral = option != null && option.getAsBoolean();
-            List<String> messages = new ArrayList<>();
-            for (RegisteredServer server : this.proxyServer.getAllServers()) {
-                String serverName = server.getServerInfo().getName();
-                String serverHostname = this.hostMap.get(serverName);
-                String serverString = "`" + serverName + "`" + (serverHostname != null ? " (" + serverHostname + ")" : "");
-                messages.add(serverString + ": **" + server.getPlayersConnected().size() + "** players online");
-            }
-            String message = String.join("\n", messages);
-            event.reply(message).setEphemeral(ephemeral).queue();
+            // With a status board, point to it instead of rendering the list for every caller
+            StatusBoard statusBoard = this.bot.getStatusBoard();
+            String boardUrl = statusBoard != null ? statusBoard.getJumpUrl() : null;
+            String message = boardUrl != null
+                    ? "Live server status: " + boardUrl
+                    : this.bot.getServerListing().render();
+            this.bot.queueInteraction(event.reply(message).setEphemeral(ephemeral));
         } else if (event.getName().equals("auth")) {
             PlayerAuthManager playerAuthManager = this.bot.getPlayerAuthManager();
             String otp = Objects.requireNonNull(event.getOption("code")).getAsString();
-            Player player = playerAuthManager.authenticate(otp);
+            PlayerIdentity player = playerAuthManager.authenticate(otp);
             if (player == null) {
-                event.reply("Invalid code. Please retry and get a new code.")
-                        .setEphemeral(true)
-                        .queue();
+                this.bot.queueInteraction(event.reply("Invalid code. Please retry and get a new code.")
+                        .setEphemeral(true));
+            } else {
+                this.bot.queueInteraction(event.reply("Welcome **" + player.username() + "**! You can now connect to the servers.")
+                        .setEphemeral(true));
+            }
+        }
+    }
+
+    // Accepts "all", or a comma-separated list where each entry is a server or a group from the config. Servers
+    // named by several entries are only sent the message once.
+    private Collection<RegisteredServer> resolveServers(String targets, Set<String> unknown) {
+        if (targets.trim().equalsIgnoreCase("all")) {
+            List<RegisteredServer> servers = new ArrayList<>(this.proxyServer.getAllServers());
+            servers.sort(Comparator.comparing(server -> server.getServerInfo().getName()));
+            return servers;
+        }
+        Map<String, List<String>> groups = this.bot.getServerGroups();
+        Map<String, RegisteredServer> servers = new LinkedHashMap<>();
+        for (String target : targets.split(",")) {
+            String name = target.trim();
+            if (name.isEmpty()) {
+                continue;
+            }
+            Optional<RegisteredServer> server = this.proxyServer.getServer(name);
+            List<String> group = groups.get(name.toLowerCase(Locale.ROOT));
+            if (server.isPresent()) {
+                servers.putIfAbsent(server.get().getServerInfo().getName(), server.get());
+            } else if (group != null) {
+                for (String member : group) {
+                    this.proxyServer.getServer(member).ifPresentOrElse(
+                            found -> servers.putIfAbsent(found.getServerInfo().getName(), found),
+                            () -> unknown.add(member));
+                }
             } else {
-                event.reply("Welcome **" + player.getUsername() + "**! You can now connect to the servers.")
-                        .setEphemeral(true)
-                        .queue();
+                unknown.add(name);
             }
         }
+        return servers.values();
     }
 }
 
@@ -233,4 +468,14 @@ final class MemberRoleListener extends ListenerAdapter {
             this.manager.removeDiscordMember(member);
         }
     }
+
+    @Override
+    public void onGuildMemberUpdate(GuildMemberUpdateEvent event) {
+        this.manager.updateDiscordMember(event.getMember());
+    }
+
+    @Override
+    public void onGuildMemberRemove(GuildMemberRemoveEvent event) {
+        this.manager.forgetDiscordMember(event.getUser().getId());
+    }
 }
@@ -0,0 +1,105 @@
+package dev.riever.supersonic;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import org.slf4j.Logger;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+public class DiscordMemberCache {
+    private record CachedName(String displayName, long expiresAt) {}
+
+    // Discord accepts at most 100 ids per member chunk request
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private final int maxSize;
+    private final long ttlMillis;
+    private final Logger logger;
+    private final LinkedHashMap<String, CachedName> names;
+
+    public DiscordMemberCache(int maxSize, int ttlMinutes, Logger logger) {
+        this.maxSize = maxSize;
+        this.ttlMillis = 60_000L * ttlMinutes;
+        this.logger = logger;
+        // Access order, so the eldest entry is always the least recently used one
+        this.names = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedName> eldest) {
+                return this.size() > DiscordMemberCache.this.maxSize;
+            }
+        };
+    }
+
+    public void put(String id, String displayName) {
+        long expiresAt = System.currentTimeMillis() + this.ttlMillis;
+        synchronized (this.names) {
+            this.names.put(id, new CachedName(displayName, expiresAt));
+        }
+    }
+
+    public void put(Member member) {
+        this.put(member.getId(), DiscordBot.getDisplayName(member));
+    }
+
+    public void invalidate(String id) {
+        synchronized (this.names) {
+            this.names.remove(id);
+        }
+    }
+
+    public String getIfPresent(String id) {
+        long now = System.currentTimeMillis();
+        synchronized (this.names) {
+            CachedName cached = this.names.get(id);
+            if (cached == null) {
+                return null;
+            }
+            if (cached.expiresAt() < now) {
+                this.names.remove(id);
+                return null;
+            }
+            return cached.displayName();
+        }
+    }
+
+    // Completes with the display names of every member that could be found; unknown ids are left out of the map.
+    // Misses are fetched together in as few gateway requests as possible and never block the calling thread.
+    public CompletableFuture<Map<String, String>> resolve(Guild guild, Collection<String> ids) {
+        Map<String, String> resolved = new HashMap<>();
+        List<String> misses = new ArrayList<>();
+        for (String id : ids) {
+            String displayName = this.getIfPresent(id);
+            if (displayName != null) {
+                resolved.put(id, displayName);
+            } else {
+                misses.add(id);
+            }
+        }
+        if (misses.isEmpty()) {
+            return CompletableFuture.completedFuture(resolved);
+        }
+
+        List<CompletableFuture<List<Member>>> batches = new ArrayList<>();
+        for (int i = 0; i < misses.size(); i += MAX_BATCH_SIZE) {
+            List<String> batch = misses.subList(i, Math.min(misses.size(), i + MAX_BATCH_SIZE));
+            CompletableFuture<List<Member>> future = new CompletableFuture<>();
+            guild.retrieveMembersByIds(batch.toArray(new String[0]))
+                    .onSuccess(future::complete)
+                    .onError(error -> {
+                        this.logger.warn("Failed to retrieve {} Discord member(s)", batch.size(), error);
+                        future.complete(List.of());
+                    });
+            batches.add(future);
+        }
+        return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            for (CompletableFuture<List<Member>> batch : batches) {
+                for (Member member : batch.join()) {
+                    this.put(member);
+                    resolved.put(member.getId(), DiscordBot.getDisplayName(member));
+                }
+            }
+            return resolved;
+        });
+    }
+}
@@ -0,0 +1,252 @@
+package dev.riever.supersonic;
+
+import dev.riever.supersonic.utils.AhoCorasick;
+import dev.riever.supersonic.utils.CharFolding;
+import dev.riever.supersonic.utils.TopKPrefixIndex;
+import dev.riever.supersonic.utils.Trie;
+import net.dv8tion.jda.api.entities.Member;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class DiscordMemberIndex {
+    public record MemberEntry(String id, String nickname, String effectiveName) {
+        public static MemberEntry of(Member member) {
+            return new MemberEntry(member.getId(), member.getNickname(), member.getEffectiveName());
+        }
+
+        public String displayName() {
+            return this.nickname != null ? this.nickname : this.effectiveName;
+        }
+    }
+
+    record Mention(String memberId, String name) {}
+
+    record Snapshot(Map<String, MemberEntry> members, AhoCorasick<Mention> mentionAutomaton) {}
+
+    private static final int COMPLETION_LIMIT = 10;
+    // Membership and usage changes within this delay are folded into one rebuild of the completions
+    private static final long COMPLETION_REBUILD_DELAY_MILLIS = 1000;
+    // Single member changes within this delay are published together, so a sweep of gateway events costs one
+    // snapshot instead of one per member
+    private static final long PUBLISH_DELAY_MILLIS = 200;
+
+    private final CharFolding folding;
+    private final CharFolding completionFolding;
+
+    // Writer-side state, only touched while holding writeLock. Readers only ever see published snapshots.
+    private final Object writeLock = new Object();
+    private final Map<String, MemberEntry> members = new HashMap<>();
+    private final Trie<Mention> mentionTrie = new Trie<>();
+    private ScheduledFuture<?> scheduledPublish;
+
+    private volatile Snapshot snapshot;
+
+    // Last time each member was mentioned, used to rank completions
+    private final ConcurrentMap<String, Long> lastMentioned = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "supersonic-member-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final AtomicBoolean completionRebuildScheduled = new AtomicBoolean();
+    private volatile TopKPrefixIndex<Mention> completions;
+
+    public DiscordMemberIndex(CharFolding folding) {
+        this.folding = folding;
+        // Completions only ever insert the real name, so they can be lenient about case even for exact matching
+        this.completionFolding = folding == CharFolding.UNICODE ? CharFolding.UNICODE : CharFolding.IGNORE_CASE;
+        this.snapshot = new Snapshot(Map.of(), AhoCorasick.build(this.mentionTrie));
+        this.completions = this.buildCompletions(this.snapshot);
+    }
+
+    public Snapshot getSnapshot() {
+        return this.snapshot;
+    }
+
+    public CharFolding getFolding() {
+        return this.folding;
+    }
+
+    public void addMembers(Collection<MemberEntry> entries) {
+        synchronized (this.writeLock) {
+            for (MemberEntry entry : entries) {
+                this.putLocked(entry);
+            }
+            this.publishLocked();
+        }
+    }
+
+    public void addMember(MemberEntry entry) {
+        synchronized (this.writeLock) {
+            this.putLocked(entry);
+            this.schedulePublishLocked();
+        }
+    }
+
+    // Checked against the writer's state rather than the snapshot, which may not show a member added just before
+    public void updateMember(MemberEntry entry) {
+        synchronized (this.writeLock) {
+            if (this.members.containsKey(entry.id())) {
+                this.putLocked(entry);
+                this.schedulePublishLocked();
+            }
+        }
+    }
+
+    public void removeMember(String id) {
+        synchronized (this.writeLock) {
+            if (this.removeLocked(id)) {
+                this.lastMentioned.remove(id);
+                this.schedulePublishLocked();
+            }
+        }
+    }
+
+    public void removeMembers(Collection<String> ids) {
+        synchronized (this.writeLock) {
+            boolean changed = false;
+            for (String id : ids) {
+                if (this.removeLocked(id)) {
+                    this.lastMentioned.remove(id);
+                    changed = true;
+                }
+            }
+            if (changed) {
+                this.publishLocked();
+            }
+        }
+    }
+
+    public void recordMention(String memberId) {
+        if (this.snapshot.members().containsKey(memberId)) {
+            this.lastMentioned.put(memberId, System.currentTimeMillis());
+            this.scheduleCompletionRebuild();
+        }
+    }
+
+    // Only walks the prefix; the index may lag behind the latest changes by the rebuild delay
+    public List<Mention> complete(String prefix) {
+        return this.completions.complete(prefix, this.completionFolding);
+    }
+
+    private void scheduleCompletionRebuild() {
+        if (!this.completionRebuildScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.scheduler.schedule(this::rebuildCompletions, COMPLETION_REBUILD_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Shut down
+        }
+    }
+
+    // Suggestions keep using the previous index until the new one is published
+    private void rebuildCompletions() {
+        // Cleared first, so a change made during the build schedules another one
+        this.completionRebuildScheduled.set(false);
+        this.completions = this.buildCompletions(this.snapshot);
+    }
+
+    private TopKPrefixIndex<Mention> buildCompletions(Snapshot current) {
+        Trie<Mention> trie = new Trie<>();
+        for (MemberEntry entry : current.members().values()) {
+            this.insertCompletion(trie, entry.effectiveName(), entry.id());
+            if (entry.nickname() != null) {
+                this.insertCompletion(trie, entry.nickname(), entry.id());
+            }
+        }
+        return TopKPrefixIndex.build(trie, COMPLETION_LIMIT,
+                mention -> this.lastMentioned.getOrDefault(mention.memberId(), 0L));
+    }
+
+    // Names with whitespace can never be matched by the mention scanner, so there is no point in suggesting them
+    private void insertCompletion(Trie<Mention> trie, String name, String id) {
+        for (int i = 0; i < name.length(); i++) {
+            if (Character.isWhitespace(name.charAt(i))) {
+                return;
+            }
+        }
+        trie.insert(this.completionFolding.fold(name), new Mention(id, name));
+    }
+
+    private void putLocked(MemberEntry entry) {
+        this.removeLocked(entry.id());
+        this.members.put(entry.id(), entry);
+        if (entry.nickname() != null) {
+            this.mentionTrie.insert(this.toKey(entry.nickname()), new Mention(entry.id(), entry.nickname()));
+        }
+        this.mentionTrie.insert(this.toKey(entry.effectiveName()), new Mention(entry.id(), entry.effectiveName()));
+    }
+
+    private boolean removeLocked(String id) {
+        MemberEntry entry = this.members.remove(id);
+        if (entry == null) {
+            return false;
+        }
+        if (entry.nickname() != null) {
+            this.removeKeyLocked(this.toKey(entry.nickname()), id);
+        }
+        this.removeKeyLocked(this.toKey(entry.effectiveName()), id);
+        return true;
+    }
+
+    // Another member may have claimed the same name since, in which case the key is theirs now
+    private void removeKeyLocked(String key, String id) {
+        Mention mention = this.mentionTrie.search(key, false);
+        if (mention != null && mention.memberId().equals(id)) {
+            this.mentionTrie.remove(key);
+        }
+    }
+
+    private void schedulePublishLocked() {
+        if (this.scheduledPublish != null) {
+            return;
+        }
+        try {
+            this.scheduledPublish = this.scheduler.schedule(this::publishPending, PUBLISH_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            this.publishLocked();
+        }
+    }
+
+    private void publishPending() {
+        synchronized (this.writeLock) {
+            // Already covered by a bulk change published in the meantime
+            if (this.scheduledPublish != null) {
+                this.publishLocked();
+            }
+        }
+    }
+
+    private void publishLocked() {
+        if (this.scheduledPublish != null) {
+            this.scheduledPublish.cancel(false);
+            this.scheduledPublish = null;
+        }
+        this.snapshot = new Snapshot(Map.copyOf(this.members), AhoCorasick.build(this.mentionTrie));
+        this.scheduleCompletionRebuild();
+    }
+
+    // Publishes pending changes first, so a snapshot saved after shutdown has them
+    public void shutdown() {
+        synchronized (this.writeLock) {
+            if (this.scheduledPublish != null) {
+                this.publishLocked();
+            }
+        }
+        this.scheduler.shutdownNow();
+    }
+
+    // Keys carry the leading '@' so that the automaton only ever matches at mention sites
+    private String toKey(String name) {
+        return "@" + this.folding.fold(name);
+    }
+}
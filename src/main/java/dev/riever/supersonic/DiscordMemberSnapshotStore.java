@@ -0,0 +1,88 @@
+package dev.riever.supersonic;
+
+import org.slf4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+// Saves the members of the relay role to a small binary file, so that mentions work right after a restart, before
+// the gateway is ready and the members are loaded again.
+//
+// Layout: magic, format version, time saved, role id, member count, then for each member its id as a long, a flag
+// for whether it has a nickname, the nickname if so, and its effective name. Snapshots of an older format are
+// ignored, and the members are loaded from the gateway as usual.
+public class DiscordMemberSnapshotStore {
+    public record Loaded(long savedAtMillis, List<DiscordMemberIndex.MemberEntry> members) {}
+
+    private static final int MAGIC = 0x53534d49;
+    private static final int FORMAT_VERSION = 2;
+
+    private final Path file;
+    private final Logger logger;
+
+    public DiscordMemberSnapshotStore(Path file, Logger logger) {
+        this.file = file;
+        this.logger = logger;
+    }
+
+    // Returns null if there is no usable snapshot for this role
+    public Loaded load(String roleId) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(this.file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                this.logger.warn("Ignoring {} as it is not a member snapshot this version can read", this.file);
+                return null;
+            }
+            long savedAtMillis = in.readLong();
+            if (!in.readUTF().equals(roleId)) {
+                return null;
+            }
+            int count = in.readInt();
+            List<DiscordMemberIndex.MemberEntry> members = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                String id = Long.toString(in.readLong());
+                String nickname = in.readBoolean() ? in.readUTF() : null;
+                members.add(new DiscordMemberIndex.MemberEntry(id, nickname, in.readUTF()));
+            }
+            return new Loaded(savedAtMillis, members);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException | RuntimeException e) {
+            this.logger.warn("Ignoring the unreadable member snapshot {}", this.file, e);
+            return null;
+        }
+    }
+
+    // Written to a temporary file first, so a crash never leaves a truncated snapshot behind
+    public void save(String roleId, DiscordMemberIndex.Snapshot snapshot) {
+        Path temporary = this.file.resolveSibling(this.file.getFileName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporary)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(System.currentTimeMillis());
+                out.writeUTF(roleId);
+                out.writeInt(snapshot.members().size());
+                for (DiscordMemberIndex.MemberEntry entry : snapshot.members().values()) {
+                    out.writeLong(Long.parseLong(entry.id()));
+                    out.writeBoolean(entry.nickname() != null);
+                    if (entry.nickname() != null) {
+                        out.writeUTF(entry.nickname());
+                    }
+                    out.writeUTF(entry.effectiveName());
+                }
+            }
+            Files.move(temporary, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.logger.error("Failed to save the member snapshot", e);
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package dev.riever.supersonic;
+
+import dev.riever.supersonic.config.SupersonicConfig;
+import dev.riever.supersonic.utils.ComponentTemplate;
+import dev.riever.supersonic.utils.TextTemplate;
+import net.kyori.adventure.text.Component;
+
+import java.util.UUID;
+
+public class MessageTemplates {
+    record Compiled(
+            TextTemplate join,
+            TextTemplate leave,
+            TextTemplate chatToDiscord,
+            TextTemplate chatToDiscordNoServer,
+            ComponentTemplate chatFromDiscord,
+            ComponentTemplate chatEcho,
+            TextTemplate webhookUsername,
+            TextTemplate webhookAvatarUrl
+    ) {
+        static Compiled of(SupersonicConfig.Messages config) {
+            return new Compiled(
+                    TextTemplate.compile(config.getJoin(), "player", "server"),
+                    TextTemplate.compile(config.getLeave(), "player", "server"),
+                    TextTemplate.compile(config.getChatToDiscord(), "player", "server", "message"),
+                    TextTemplate.compile(config.getChatToDiscordNoServer(), "player", "message"),
+                    ComponentTemplate.compile(config.getChatFromDiscord(), "sender", "message"),
+                    ComponentTemplate.compile(config.getChatEcho(), "player", "message"),
+                    TextTemplate.compile(config.getWebhookUsername(), "player"),
+                    TextTemplate.compile(config.getWebhookAvatarUrl(), "player", "uuid")
+            );
+        }
+    }
+
+    // Swapped as a whole on reload, so a message is never rendered with a mix of old and new templates
+    private volatile Compiled compiled;
+
+    public MessageTemplates(SupersonicConfig.Messages config) {
+        this.compiled = Compiled.of(config);
+    }
+
+    // Compiled apart from update(), so a broken template is found before anything is replaced
+    public static Compiled compile(SupersonicConfig.Messages config) {
+        return Compiled.of(config);
+    }
+
+    public void update(Compiled compiled) {
+        this.compiled = compiled;
+    }
+
+    public String join(String player, String server) {
+        return this.compiled.join().render(player, server);
+    }
+
+    public String leave(String player, String server) {
+        return this.compiled.leave().render(player, server);
+    }
+
+    public String chatToDiscord(String player, String server, String message) {
+        Compiled compiled = this.compiled;
+        if (server == null) {
+            return compiled.chatToDiscordNoServer().render(player, message);
+        }
+        return compiled.chatToDiscord().render(player, server, message);
+    }
+
+    public Component chatFromDiscord(String sender, Component message) {
+        return this.compiled.chatFromDiscord().render(Component.text(sender), message);
+    }
+
+    public Component chatEcho(String player, Component message) {
+        return this.compiled.chatEcho().render(Component.text(player), message);
+    }
+
+    public String webhookUsername(String player) {
+        return this.compiled.webhookUsername().render(player);
+    }
+
+    public String webhookAvatarUrl(String player, UUID uuid) {
+        return this.compiled.webhookAvatarUrl().render(player, uuid.toString());
+    }
+}
@@ -1,34 +1,59 @@
 package dev.riever.supersonic;
 
 import com.velocitypowered.api.proxy.Player;
+import dev.riever.supersonic.config.SupersonicConfig;
 import dev.riever.supersonic.config.WhitelistManager;
 import dev.riever.supersonic.storage.InMemoryPlayerAuthStorage;
 import dev.riever.supersonic.storage.PlayerAuthStorage;
+import dev.riever.supersonic.storage.PlayerIdentity;
+import dev.riever.supersonic.storage.SqlitePlayerAuthStorage;
+import dev.riever.supersonic.utils.OtpAllocator;
+import dev.riever.supersonic.utils.TokenBucketLimiter;
 import org.slf4j.Logger;
 
+import java.net.InetAddress;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public class PlayerAuthManager {
+    private static final int REQUEST_LOCK_STRIPES = 64;
+
     private final WhitelistManager whitelistManager;
     private final PlayerAuthStorage playerAuthStorage;
-    private final int maxRequestAge;
-    private final Random random;
+    private volatile int maxRequestAge;
+    private final OtpAllocator otpAllocator;
+    private final TokenBucketLimiter<InetAddress> ipLimiter;
+    private final TokenBucketLimiter<UUID> playerLimiter;
+    private final Object[] requestLocks = new Object[REQUEST_LOCK_STRIPES];
     private final Logger logger;
 
     public PlayerAuthManager(
             Path whitelistFile,
             String storageType,
+            Path databaseFile,
             int maxRequestAge,
             int cleanerPeriod,
+            int whitelistCompactionPeriod,
+            SupersonicConfig.RateLimit rateLimit,
             Random random,
             Logger logger
     ) {
-        this.whitelistManager = new WhitelistManager(whitelistFile);
-        this.playerAuthStorage = new InMemoryPlayerAuthStorage(logger, cleanerPeriod);
+        this.whitelistManager = new WhitelistManager(whitelistFile, whitelistCompactionPeriod, logger);
+        this.playerAuthStorage = switch (storageType) {
+            case "in-memory" -> new InMemoryPlayerAuthStorage(logger);
+            case "sqlite" -> new SqlitePlayerAuthStorage(databaseFile, cleanerPeriod, logger);
+            default -> throw new IllegalArgumentException("Unknown storage type: " + storageType);
+        };
         this.maxRequestAge = maxRequestAge;
-        this.random = random;
+        this.otpAllocator = new OtpAllocator(random);
+        this.ipLimiter = new TokenBucketLimiter<>(rateLimit.getIpBurst(), rateLimit.getIpPerMinute(), rateLimit.getMaxTrackedKeys());
+        this.playerLimiter = new TokenBucketLimiter<>(rateLimit.getPlayerBurst(), rateLimit.getPlayerPerMinute(), rateLimit.getMaxTrackedKeys());
+        for (int i = 0; i < REQUEST_LOCK_STRIPES; i++) {
+            this.requestLocks[i] = new Object();
+        }
         this.logger = logger;
     }
 
@@ -38,27 +63,53 @@ public class PlayerAuthManager {
         this.logger.info("Initialized player auth storage");
     }
 
-    private String generateOtp() {
-        StringBuilder builder = new StringBuilder();
-        for (int i = 0; i < 6; i++) {
-            builder.append(this.random.nextInt(10));
-        }
-        return builder.toString();
+    // Checked before request(), so that a login flood cannot fill the storage and the code space. The address
+    // is checked first, so a rejected address does not use up the player's tokens.
+    public boolean admit(Player player) {
+        return this.ipLimiter.tryAcquire(player.getRemoteAddress().getAddress())
+                && this.playerLimiter.tryAcquire(player.getUniqueId());
+    }
+
+    public long getRejectedByIpCount() {
+        return this.ipLimiter.getRejectedCount();
+    }
+
+    public long getRejectedByPlayerCount() {
+        return this.playerLimiter.getRejectedCount();
+    }
+
+    public int getTrackedIpCount() {
+        return this.ipLimiter.size();
     }
 
+    public int getTrackedPlayerCount() {
+        return this.playerLimiter.size();
+    }
+
+    // A player who reconnects before redeeming their code gets the same code back, valid for the full age again.
+    // Locked per player, so that two logins of the same player cannot both miss and create two requests, while
+    // logins of different players do not wait on each other.
     public String request(Player player) {
-        while (true) {
-            String otp = this.generateOtp();
-            if (this.playerAuthStorage.savePlayerAuth(player, otp, Instant.now().plusSeconds(60L * this.maxRequestAge))) {
+        UUID uuid = player.getUniqueId();
+        synchronized (this.requestLocks[Math.floorMod(uuid.hashCode(), REQUEST_LOCK_STRIPES)]) {
+            Instant expiresAt = Instant.now().plusSeconds(60L * this.maxRequestAge);
+            String otp = this.playerAuthStorage.renewPlayerAuth(uuid, expiresAt);
+            if (otp != null) {
                 return otp;
             }
+            PlayerIdentity identity = PlayerIdentity.of(player);
+            // Codes only repeat once the whole space has been handed out, or when another proxy shares the storage
+            do {
+                otp = this.otpAllocator.next();
+            } while (!this.playerAuthStorage.savePlayerAuth(identity, otp, expiresAt));
+            return otp;
         }
     }
 
-    public Player authenticate(String otp) {
-        Player player = this.playerAuthStorage.authenticate(otp);
+    public PlayerIdentity authenticate(String otp) {
+        PlayerIdentity player = this.playerAuthStorage.authenticate(otp);
         if (player != null) {
-            this.whitelistManager.addPlayer(player);
+            this.whitelistManager.addPlayer(player.uuid(), player.username());
         }
         return player;
     }
@@ -66,4 +117,17 @@ public class PlayerAuthManager {
     public boolean isAuthenticated(Player player) {
         return this.whitelistManager.check(player);
     }
+
+    public void setMaxRequestAge(int maxRequestAge) {
+        this.maxRequestAge = maxRequestAge;
+    }
+
+    public CompletableFuture<Boolean> reloadWhitelist(boolean force) {
+        return this.whitelistManager.reload(force);
+    }
+
+    public void shutdown() {
+        this.playerAuthStorage.shutdown();
+        this.whitelistManager.shutdown();
+    }
 }
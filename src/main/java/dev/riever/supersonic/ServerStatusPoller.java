@@ -0,0 +1,145 @@
+package dev.riever.supersonic;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import com.velocitypowered.api.proxy.server.ServerPing;
+import net.kyori.adventure.text.Component;
+import org.slf4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Pings every registered server in the background and publishes the results as an immutable snapshot, so readers
+// never wait on a backend
+public class ServerStatusPoller {
+    public record ServerStatus(
+            String name,
+            boolean online,
+            long latencyMillis,
+            String version,
+            Component motd,
+            int maxPlayers
+    ) {
+        static ServerStatus offline(String name) {
+            return new ServerStatus(name, false, -1, null, Component.empty(), -1);
+        }
+
+        // Latency differs on almost every ping, so it is left out; otherwise every poll would count as a change
+        boolean sameStateAs(ServerStatus other) {
+            return other != null
+                    && this.online == other.online
+                    && this.maxPlayers == other.maxPlayers
+                    && Objects.equals(this.version, other.version)
+                    && Objects.equals(this.motd, other.motd);
+        }
+    }
+
+    private final ProxyServer proxyServer;
+    private final int intervalSeconds;
+    private final int timeoutMillis;
+    private final Runnable onChange;
+    private final Logger logger;
+    private final ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "supersonic-status-poller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Map<String, ServerStatus> snapshot = Map.of();
+
+    public ServerStatusPoller(ProxyServer proxyServer, int intervalSeconds, int timeoutMillis, Runnable onChange, Logger logger) {
+        this.proxyServer = proxyServer;
+        this.intervalSeconds = intervalSeconds;
+        this.timeoutMillis = timeoutMillis;
+        this.onChange = onChange;
+        this.logger = logger;
+    }
+
+    public void initialize() {
+        // Runs never overlap, as each poll waits for its pings, which are bounded by the timeout
+        this.poller.scheduleAtFixedRate(this::poll, 0, this.intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    private void poll() {
+        try {
+            List<CompletableFuture<ServerStatus>> pings = new ArrayList<>();
+            for (RegisteredServer server : this.proxyServer.getAllServers()) {
+                pings.add(this.ping(server));
+            }
+            CompletableFuture.allOf(pings.toArray(new CompletableFuture[0])).join();
+
+            Map<String, ServerStatus> statuses = new HashMap<>();
+            for (CompletableFuture<ServerStatus> ping : pings) {
+                ServerStatus status = ping.join();
+                statuses.put(status.name(), status);
+            }
+            Map<String, ServerStatus> previous = this.snapshot;
+            this.snapshot = Map.copyOf(statuses);
+            if (changed(previous, this.snapshot)) {
+                this.onChange.run();
+            }
+        } catch (RuntimeException e) {
+            // An exception would cancel the schedule
+            this.logger.error("Failed to poll server status", e);
+        }
+    }
+
+    private static boolean changed(Map<String, ServerStatus> previous, Map<String, ServerStatus> current) {
+        if (!previous.keySet().equals(current.keySet())) {
+            return true;
+        }
+        for (ServerStatus status : current.values()) {
+            if (!status.sameStateAs(previous.get(status.name()))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private CompletableFuture<ServerStatus> ping(RegisteredServer server) {
+        String name = server.getServerInfo().getName();
+        long startNanos = System.nanoTime();
+        CompletableFuture<ServerPing> ping;
+        try {
+            ping = server.ping();
+        } catch (RuntimeException e) {
+            ping = CompletableFuture.failedFuture(e);
+        }
+        return ping
+                .orTimeout(this.timeoutMillis, TimeUnit.MILLISECONDS)
+                .handle((result, error) -> {
+                    if (error != null) {
+                        this.logger.debug("Failed to ping {}", name, error);
+                        return ServerStatus.offline(name);
+                    }
+                    return new ServerStatus(
+                            name,
+                            true,
+                            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                            result.getVersion().getName(),
+                            result.getDescriptionComponent(),
+                            result.getPlayers().map(ServerPing.Players::getMax).orElse(-1)
+                    );
+                });
+    }
+
+    // Null until the server has been polled once
+    public ServerStatus getStatus(String serverName) {
+        return this.snapshot.get(serverName);
+    }
+
+    public Map<String, ServerStatus> getSnapshot() {
+        return this.snapshot;
+    }
+
+    public void shutdown() {
+        this.poller.shutdownNow();
+    }
+}
@@ -0,0 +1,201 @@
+package dev.riever.supersonic;
+
+import com.velocitypowered.api.proxy.ProxyServer;
+import com.velocitypowered.api.proxy.server.RegisteredServer;
+import dev.riever.supersonic.transport.OutboundScheduler;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.exceptions.ErrorResponseException;
+import net.dv8tion.jda.api.requests.ErrorResponse;
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+// A single message in the relay channel listing the servers, edited in place when player counts change.
+// Changes are gathered for one interval before the message is re-rendered, so a burst of joins costs one edit.
+// Edits go through the outbound scheduler below everything else, so the board never takes budget from chat.
+public class StatusBoard {
+    private final Supplier<TextChannel> channel;
+    private final OutboundScheduler outboundScheduler;
+    private final ServerListing serverListing;
+    private final Path stateFile;
+    private final int intervalSeconds;
+    private final Logger logger;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "supersonic-status-board");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile String messageId;
+
+    // Guarded by this; changes before the gateway is ready are covered by the first update
+    private boolean started = false;
+    private ScheduledFuture<?> scheduledUpdate;
+    private boolean editInFlight = false;
+    private String lastContent;
+
+    public StatusBoard(
+            Supplier<TextChannel> channel,
+            OutboundScheduler outboundScheduler,
+            ServerListing serverListing,
+            Path stateFile,
+            int intervalSeconds,
+            Logger logger
+    ) {
+        this.channel = channel;
+        this.outboundScheduler = outboundScheduler;
+        this.serverListing = serverListing;
+        this.stateFile = stateFile;
+        this.intervalSeconds = intervalSeconds;
+        this.logger = logger;
+    }
+
+    // Picks up the message posted before the last restart, if any
+    public void initialize() {
+        if (Files.exists(this.stateFile)) {
+            try {
+                String id = Files.readString(this.stateFile).strip();
+                this.messageId = id.isEmpty() ? null : id;
+            } catch (IOException e) {
+                this.logger.error("Failed to read the status board message id", e);
+            }
+        }
+        synchronized (this) {
+            this.started = true;
+            this.markDirty();
+        }
+    }
+
+    public synchronized void markDirty() {
+        if (this.started && this.scheduledUpdate == null) {
+            this.scheduledUpdate = this.scheduler.schedule(this::update, this.intervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private void update() {
+        String content;
+        synchronized (this) {
+            this.scheduledUpdate = null;
+            if (this.editInFlight) {
+                this.markDirty();
+                return;
+            }
+            content = this.serverListing.render();
+            // Discord refuses empty messages, and retrying would fail the same way every interval
+            if (content.isBlank() || content.equals(this.lastContent)) {
+                return;
+            }
+            this.editInFlight = true;
+        }
+        this.outboundScheduler.submit(OutboundScheduler.Priority.STATUS, () -> this.publish(content)).whenComplete((message, error) -> {
+            synchronized (this) {
+                this.editInFlight = false;
+                if (error != null) {
+                    this.logger.error("Failed to update the status board", error);
+                    this.markDirty();
+                } else {
+                    this.lastContent = content;
+                }
+            }
+        });
+    }
+
+    private CompletableFuture<Message> publish(String content) {
+        TextChannel channel = this.channel.get();
+        String messageId = this.messageId;
+        if (messageId == null) {
+            return this.post(channel, content);
+        }
+        return channel.editMessageById(messageId, content).submit()
+                .exceptionallyCompose(error -> {
+                    Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                    // The board was deleted by someone, so post a new one
+                    if (cause instanceof ErrorResponseException response
+                            && response.getErrorResponse() == ErrorResponse.UNKNOWN_MESSAGE) {
+                        return this.post(channel, content);
+                    }
+                    return CompletableFuture.failedFuture(cause);
+                });
+    }
+
+    private CompletableFuture<Message> post(TextChannel channel, String content) {
+        return channel.sendMessage(content).submit().thenApply(message -> {
+            this.messageId = message.getId();
+            try {
+                Files.writeString(this.stateFile, message.getId());
+            } catch (IOException e) {
+                this.logger.error("Failed to save the status board message id", e);
+            }
+            return message;
+        });
+    }
+
+    // Null until the board has been posted
+    public String getJumpUrl() {
+        String messageId = this.messageId;
+        if (messageId == null) {
+            return null;
+        }
+        TextChannel channel = this.channel.get();
+        return String.format(Message.JUMP_URL, channel.getGuild().getId(), channel.getId(), messageId);
+    }
+
+    public void shutdown() {
+        this.scheduler.shutdownNow();
+    }
+}
+
+final class ServerListing {
+    private final ProxyServer proxyServer;
+    private final ServerStatusPoller statusPoller;
+    private final Map<String, String> hostMap = new HashMap<>();
+
+    public ServerListing(ProxyServer proxyServer, ServerStatusPoller statusPoller) {
+        this.proxyServer = proxyServer;
+        this.statusPoller = statusPoller;
+        this.proxyServer.getConfiguration().getForcedHosts().forEach((hostname, serverNameList) -> {
+            for (String serverName : serverNameList) {
+                this.hostMap.put(serverName, hostname);
+            }
+        });
+    }
+
+    public String render() {
+        List<String> messages = new ArrayList<>();
+        for (RegisteredServer server : this.proxyServer.getAllServers()) {
+            String serverName = server.getServerInfo().getName();
+            String serverHostname = this.hostMap.get(serverName);
+            String serverString = "`" + serverName + "`" + (serverHostname != null ? " (" + serverHostname + ")" : "");
+            messages.add(serverString + ": " + this.describe(serverName, server.getPlayersConnected().size()));
+        }
+        return String.join("\n", messages);
+    }
+
+    // The latency shown is the one from the last poll; it is only refreshed when something else changes, so it
+    // never causes an edit on its own
+    private String describe(String serverName, int players) {
+        ServerStatusPoller.ServerStatus status = this.statusPoller != null ? this.statusPoller.getStatus(serverName) : null;
+        if (status == null) {
+            return "**" + players + "** players online";
+        }
+        if (!status.online()) {
+            return "offline";
+        }
+        String capacity = status.maxPlayers() >= 0 ? "/" + status.maxPlayers() : "";
+        return "**" + players + "**" + capacity + " players online, " + status.version() + ", " + status.latencyMillis() + " ms";
+    }
+}
@@ -2,11 +2,13 @@ package dev.riever.supersonic;
 
 import com.google.inject.Inject;
 import com.velocitypowered.api.command.*;
+import com.velocitypowered.api.event.EventTask;
 import com.velocitypowered.api.event.Subscribe;
 import com.velocitypowered.api.event.connection.DisconnectEvent;
 import com.velocitypowered.api.event.connection.LoginEvent;
 import com.velocitypowered.api.event.player.ServerPostConnectEvent;
 import com.velocitypowered.api.event.proxy.ProxyInitializeEvent;
+import com.velocitypowered.api.event.proxy.ProxyShutdownEvent;
 import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.Player;
@@ -14,8 +16,15 @@ import com.velocitypowered.api.proxy.ProxyServer;
 import com.velocitypowered.api.proxy.ServerConnection;
 import com.velocitypowered.api.proxy.server.RegisteredServer;
 import com.velocitypowered.api.proxy.server.ServerInfo;
+import dev.riever.supersonic.config.FileWatcher;
 import dev.riever.supersonic.config.SupersonicConfig;
 import dev.riever.supersonic.config.SupersonicConfigManager;
+import dev.riever.supersonic.transport.DiscordTransport;
+import dev.riever.supersonic.transport.MessageBatcher;
+import dev.riever.supersonic.transport.OutboundScheduler;
+import dev.riever.supersonic.transport.WebhookPoolTransport;
+import dev.riever.supersonic.utils.CharFolding;
+import dev.riever.supersonic.utils.ChatFloodGuard;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.format.NamedTextColor;
 import net.kyori.adventure.text.format.TextDecoration;
@@ -24,19 +33,38 @@ import org.slf4j.Logger;
 import java.nio.file.Path;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 @Plugin(id = "supersonic", name = "Supersonic", version = "0.3.0-SNAPSHOT",
         url = "https://github.com/rieverholic/supersonic", description = "A velocity plugin for Joon's Dreamyard", authors = {"Riever"})
 public class Supersonic {
+    private static final int LOGIN_THREADS = 4;
+    // Logins past this many waiting for a login thread are turned away rather than queued
+    private static final int LOGIN_QUEUE_CAPACITY = 256;
+    private static final long FILE_WATCH_DEBOUNCE_MILLIS = 500;
 
     private final ProxyServer proxyServer;
     private final Logger logger;
     private final Path dataDirectory;
     private final Random random;
+    // Auth requests may hit the disk, so they are handled here rather than on Velocity's event threads
+    private final ExecutorService loginExecutor;
+    private final AtomicLong loginsTurnedAway = new AtomicLong();
 
     private SupersonicConfigManager configManager;
     private DiscordBot discordBot;
     private PlayerAuthManager playerAuthManager;
+    private MessageTemplates messageTemplates;
+    private ServerStatusPoller statusPoller;
+    private FileWatcher fileWatcher;
+    private ChatFloodGuard<UUID> chatFloodGuard;
 
     @Inject
     public Supersonic(ProxyServer proxyServer, Logger logger, @DataDirectory Path dataDirectory) {
@@ -44,6 +72,13 @@ public class Supersonic {
         this.logger = logger;
         this.dataDirectory = dataDirectory;
         this.random = new Random();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.loginExecutor = new ThreadPoolExecutor(LOGIN_THREADS, LOGIN_THREADS, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(LOGIN_QUEUE_CAPACITY), runnable -> {
+            Thread thread = new Thread(runnable, "supersonic-login-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
     }
 
     @Subscribe
@@ -68,13 +103,19 @@ public class Supersonic {
             this.random.setSeed(seed);
         }
 
+        // Compile message templates
+        this.messageTemplates = new MessageTemplates(config.getMessages());
+
         // Initialize auth manager
         SupersonicConfig.Auth authConfig = config.getAuth();
         this.playerAuthManager = new PlayerAuthManager(
                 whitelistFile,
                 authConfig.getStorageType(),
+                this.dataDirectory.resolve(authConfig.getDatabaseFile()),
                 authConfig.getMaxRequestAge(),
                 authConfig.getCleanerPeriod(),
+                authConfig.getWhitelistCompactionPeriod(),
+                authConfig.getRateLimit(),
                 this.random,
                 this.logger
         );
@@ -82,15 +123,52 @@ public class Supersonic {
 
         // Initialize Discord bot
         SupersonicConfig.Discord discordConfig = config.getDiscord();
+        if (discordConfig.getStatusPollInterval() > 0) {
+            this.statusPoller = new ServerStatusPoller(
+                    this.proxyServer,
+                    discordConfig.getStatusPollInterval(),
+                    discordConfig.getStatusPingTimeout(),
+                    () -> this.discordBot.onServerStatusChanged(),
+                    this.logger
+            );
+        }
+        SupersonicConfig.Outbound outboundConfig = config.getOutbound();
+        DiscordTransport relayTransport = switch (discordConfig.getRelayTransport()) {
+            case "bot" -> null;
+            case "webhooks" -> new WebhookPoolTransport(discordConfig.getWebhookUrls(), this.logger);
+            default -> throw new IllegalArgumentException("Unknown relay transport: " + discordConfig.getRelayTransport());
+        };
         this.discordBot = new DiscordBot(
                 discordConfig.getBotToken(),
                 discordConfig.getChannelId(),
                 discordConfig.getRoleId(),
+                CharFolding.fromConfigName(discordConfig.getMentionMatching()),
+                new DiscordMemberCache(discordConfig.getMemberCacheSize(), discordConfig.getMemberCacheTtl(), this.logger),
+                this.messageTemplates,
+                discordConfig.getBatchWindowMillis(),
+                relayTransport,
+                new OutboundScheduler(
+                        outboundConfig.getMaxInFlight(),
+                        outboundConfig.getInteractionCapacity(),
+                        outboundConfig.getChatCapacity(),
+                        OutboundScheduler.OverflowPolicy.fromConfigName(outboundConfig.getChatPolicy()),
+                        outboundConfig.getPresenceCapacity(),
+                        OutboundScheduler.OverflowPolicy.fromConfigName(outboundConfig.getPresencePolicy()),
+                        this.logger
+                ),
+                this.statusPoller,
+                discordConfig.isStatusBoard(),
+                discordConfig.getStatusBoardInterval(),
+                this.dataDirectory,
                 this.proxyServer,
                 this.playerAuthManager,
                 this.logger
         );
+        this.discordBot.setServerGroups(discordConfig.getServerGroups());
         this.discordBot.initialize();
+        if (this.statusPoller != null) {
+            this.statusPoller.initialize();
+        }
 
         // Initialize Minecraft command
         CommandManager commandManager = this.proxyServer.getCommandManager();
@@ -98,8 +176,103 @@ public class Supersonic {
                 .plugin(this)
                 .build();
 
-        RawCommand chatCommand = new DiscordChatCommand(this.discordBot.getCrossChatManager());
+        SupersonicConfig.ChatLimit chatLimit = discordConfig.getChatLimit();
+        this.chatFloodGuard = new ChatFloodGuard<>(
+                chatLimit.getMaxMessages(),
+                chatLimit.getWindow() * 1000L,
+                chatLimit.getDuplicateHistory(),
+                chatLimit.getDuplicateWindow() * 1000L
+        );
+        RawCommand chatCommand = new DiscordChatCommand(this.discordBot.getCrossChatManager(), this.chatFloodGuard, this.logger);
         commandManager.register(commandMeta, chatCommand);
+
+        CommandMeta adminCommandMeta = commandManager.metaBuilder("supersonic")
+                .plugin(this)
+                .build();
+        commandManager.register(adminCommandMeta, new AdminCommand(this));
+
+        // Watch for edits to the config and whitelist
+        if (config.isWatchFiles()) {
+            this.fileWatcher = new FileWatcher(this.dataDirectory, Map.of(
+                    configFile.getFileName().toString(), this::reloadConfig,
+                    whitelistFile.getFileName().toString(), () -> this.playerAuthManager.reloadWhitelist(false)
+                            .whenComplete((reloaded, error) -> {
+                                if (error != null) {
+                                    this.logger.error("Failed to reload the whitelist", error);
+                                } else if (reloaded) {
+                                    this.logger.info("Reloaded the whitelist");
+                                }
+                            })
+            ), FILE_WATCH_DEBOUNCE_MILLIS, this.logger);
+            this.fileWatcher.start();
+        }
+    }
+
+    // Only settings that are read on use take effect; Discord connection settings still need a restart. A config
+    // that fails to parse or compile leaves the current one in place.
+    public synchronized void reloadConfig() {
+        SupersonicConfig config = this.configManager.parse();
+        MessageTemplates.Compiled templates = MessageTemplates.compile(config.getMessages());
+        // The last step that can fail; nothing after it does, so the rest is replaced together
+        this.discordBot.setServerGroups(config.getDiscord().getServerGroups());
+        this.configManager.setConfig(config);
+        this.messageTemplates.update(templates);
+        this.playerAuthManager.setMaxRequestAge(config.getAuth().getMaxRequestAge());
+        this.logger.info("Reloaded the config");
+    }
+
+    // Shown by /supersonic status
+    public List<String> getStatusLines() {
+        List<String> lines = new ArrayList<>();
+        ChatDispatcher dispatcher = this.discordBot.getCrossChatManager().getDispatcher();
+        lines.add("Chat dispatch lanes (" + dispatcher.getDroppedCount() + " message(s) dropped):");
+        dispatcher.getQueueDepths().forEach((lane, depth) -> lines.add("  " + lane + ": " + depth + " queued"));
+        lines.add("Chat limits: " + this.chatFloodGuard.size() + " player(s) tracked, "
+                + this.chatFloodGuard.getRateLimitedCount() + " message(s) rate limited, "
+                + this.chatFloodGuard.getDuplicateCount() + " duplicate(s) suppressed");
+        OutboundScheduler scheduler = this.discordBot.getOutboundScheduler();
+        lines.add("Outbound Discord queues:");
+        for (OutboundScheduler.Priority priority : OutboundScheduler.Priority.values()) {
+            lines.add("  " + priority.name().toLowerCase(Locale.ROOT) + ": " + scheduler.getQueueDepth(priority) + " queued, "
+                    + scheduler.getDelayedCount(priority) + " delayed, " + scheduler.getDroppedCount(priority) + " dropped");
+        }
+        lines.add(describeBatcher("Chat", this.discordBot.getChatBatcher()));
+        lines.add(describeBatcher("Presence", this.discordBot.getPresenceBatcher()));
+        lines.add("Login limits: " + this.playerAuthManager.getTrackedIpCount() + " address(es) and "
+                + this.playerAuthManager.getTrackedPlayerCount() + " player(s) tracked, "
+                + this.playerAuthManager.getRejectedByIpCount() + " login(s) rejected by address, "
+                + this.playerAuthManager.getRejectedByPlayerCount() + " by player, "
+                + this.loginsTurnedAway.get() + " turned away while busy");
+        return lines;
+    }
+
+    private static String describeBatcher(String name, MessageBatcher batcher) {
+        return String.format(Locale.ROOT, "%s batches: %d flushed, last of %d message(s), %.1f on average, %.0f ms average latency",
+                name, batcher.getFlushCount(), batcher.getLastBatchSize(), batcher.getAverageBatchSize(),
+                batcher.getAverageFlushLatencyMillis());
+    }
+
+    public CompletableFuture<Void> reload() {
+        return CompletableFuture.runAsync(this::reloadConfig)
+                .thenCompose(ignored -> this.playerAuthManager.reloadWhitelist(true))
+                .thenAccept(reloaded -> this.logger.info("Reloaded the whitelist"));
+    }
+
+    @Subscribe
+    public void onProxyShutdown(ProxyShutdownEvent event) {
+        this.loginExecutor.shutdown();
+        if (this.fileWatcher != null) {
+            this.fileWatcher.stop();
+        }
+        if (this.statusPoller != null) {
+            this.statusPoller.shutdown();
+        }
+        if (this.discordBot != null) {
+            this.discordBot.shutdown();
+        }
+        if (this.playerAuthManager != null) {
+            this.playerAuthManager.shutdown();
+        }
     }
 
     @Subscribe
@@ -109,8 +282,9 @@ public class Supersonic {
         Optional<ServerConnection> conn = player.getCurrentServer();
         if (conn.isPresent()) {
             ServerInfo serverInfo = conn.get().getServerInfo();
-            this.discordBot.sendMessage("**" + username + "** joined `" + serverInfo.getName() + "`.");
+            this.discordBot.sendMessage(this.messageTemplates.join(username, serverInfo.getName()), OutboundScheduler.Priority.PRESENCE);
         }
+        this.discordBot.onServerStatusChanged();
     }
 
     @Subscribe
@@ -120,50 +294,176 @@ public class Supersonic {
         Optional<ServerConnection> conn = player.getCurrentServer();
         if (conn.isPresent()) {
             ServerInfo serverInfo = conn.get().getServerInfo();
-            this.discordBot.sendMessage("**" + username + "** left `" + serverInfo.getName() + "`.");
+            this.discordBot.sendMessage(this.messageTemplates.leave(username, serverInfo.getName()), OutboundScheduler.Priority.PRESENCE);
         }
+        this.chatFloodGuard.forget(player.getUniqueId());
+        this.discordBot.onServerStatusChanged();
     }
 
+    // Whitelisted players are let through right away, as the check is a lock-free lookup. Everyone else passes the
+    // rate limits here, before anything is queued, and the event is then held while the request is made on the
+    // login executor; returning null means no async work.
     @Subscribe
-    public void onLogin(LoginEvent event) {
+    public EventTask onLogin(LoginEvent event) {
         Player player = event.getPlayer();
-        if (!this.playerAuthManager.isAuthenticated(player)) {
-            String otp = this.playerAuthManager.request(player);
-            int maxRequestAge = this.configManager.getConfig().getAuth().getMaxRequestAge();
-            Component reply = Component.text("Welcome to Joon's Dreamyard! Please submit this code on Discord with ")
-                    .append(Component.text("/auth", NamedTextColor.GREEN))
-                    .appendSpace()
-                    .append(Component.text("<code>", NamedTextColor.AQUA))
-                    .append(Component.text(" command:"))
-                    .appendNewline()
-                    .appendNewline()
-                    .append(Component.text(otp).decorate(TextDecoration.BOLD))
-                    .appendNewline()
-                    .appendNewline()
-                    .append(Component.text("This code will expire in " + maxRequestAge + " minutes."));
-            event.setResult(LoginEvent.ComponentResult.denied(reply));
-            this.logger.info("Authentication request from {} ({})", player.getUsername(), player.getUniqueId());
+        if (this.playerAuthManager.isAuthenticated(player)) {
+            return null;
+        }
+        if (!this.playerAuthManager.admit(player)) {
+            event.setResult(LoginEvent.ComponentResult.denied(
+                    Component.text("Too many login attempts. Please wait a moment and try again.", NamedTextColor.RED)));
+            this.logger.debug("Rate limited an authentication request from {} ({})", player.getUsername(), player.getUniqueId());
+            return null;
+        }
+        CompletableFuture<Void> request;
+        try {
+            request = CompletableFuture.runAsync(() -> this.requestAuth(event), this.loginExecutor);
+        } catch (RejectedExecutionException e) {
+            this.loginsTurnedAway.incrementAndGet();
+            event.setResult(LoginEvent.ComponentResult.denied(
+                    Component.text("The server is busy. Please try again in a moment.", NamedTextColor.RED)));
+            return null;
         }
+        return EventTask.resumeWhenComplete(request
+                .exceptionally(error -> {
+                    this.logger.error("Failed to handle the login of {} ({})", player.getUsername(), player.getUniqueId(), error);
+                    event.setResult(LoginEvent.ComponentResult.denied(
+                            Component.text("Something went wrong. Please try again later.", NamedTextColor.RED)));
+                    return null;
+                }));
+    }
+
+    private void requestAuth(LoginEvent event) {
+        Player player = event.getPlayer();
+        String otp = this.playerAuthManager.request(player);
+        int maxRequestAge = this.configManager.getConfig().getAuth().getMaxRequestAge();
+        Component reply = Component.text("Welcome to Joon's Dreamyard! Please submit this code on Discord with ")
+                .append(Component.text("/auth", NamedTextColor.GREEN))
+                .appendSpace()
+                .append(Component.text("<code>", NamedTextColor.AQUA))
+                .append(Component.text(" command:"))
+                .appendNewline()
+                .appendNewline()
+                .append(Component.text(otp).decorate(TextDecoration.BOLD))
+                .appendNewline()
+                .appendNewline()
+                .append(Component.text("This code will expire in " + maxRequestAge + " minutes."));
+        event.setResult(LoginEvent.ComponentResult.denied(reply));
+        this.logger.info("Authentication request from {} ({})", player.getUsername(), player.getUniqueId());
     }
 }
 
 final class DiscordChatCommand implements RawCommand {
     private final CrossChatManager crossChatManager;
+    private final ChatFloodGuard<UUID> floodGuard;
+    private final Logger logger;
 
-    public DiscordChatCommand(CrossChatManager crossChatManager) {
+    public DiscordChatCommand(CrossChatManager crossChatManager, ChatFloodGuard<UUID> floodGuard, Logger logger) {
         this.crossChatManager = crossChatManager;
+        this.floodGuard = floodGuard;
+        this.logger = logger;
     }
 
+    // The Discord send and the echo each go through their own lane, so neither a slow gateway nor a slow backend
+    // holds up the command thread
     @Override
     public void execute(final Invocation invocation) {
         String content = invocation.arguments();
         CommandSource source = invocation.source();
-        if (source instanceof Player player) {
-            Component replyMessage = crossChatManager.minecraftToDiscord(player, content);
+        if (source instanceof Player player && player.isActive()) {
+            // Checked before any rendering or Discord work, so a spamming player costs next to nothing
+            ChatFloodGuard.Verdict verdict = this.floodGuard.check(player.getUniqueId(), content);
+            // A disconnect between the two checks may have forgotten the player before the history was created
+            if (!player.isActive()) {
+                this.floodGuard.forget(player.getUniqueId());
+                return;
+            }
+            switch (verdict) {
+                case RATE_LIMITED -> {
+                    player.sendMessage(Component.text("You are sending messages too quickly, slow down.", NamedTextColor.RED));
+                    return;
+                }
+                case DUPLICATE -> {
+                    player.sendMessage(Component.text("You already sent that message.", NamedTextColor.RED));
+                    return;
+                }
+                case ALLOWED -> {}
+            }
             RegisteredServer server = player.getCurrentServer()
                     .map(ServerConnection::getServer)
                     .orElse(null);
-            Objects.requireNonNullElse(server, player).sendMessage(replyMessage);
+            ChatDispatcher dispatcher = this.crossChatManager.getDispatcher();
+            dispatcher.dispatch(ChatDispatcher.DISCORD_LANE, () -> {
+                Component replyMessage = this.crossChatManager.minecraftToDiscord(player, content);
+                if (server != null) {
+                    dispatcher.dispatch(server, () -> server.sendMessage(replyMessage))
+                            .exceptionally(error -> this.logFailure(player, error));
+                } else {
+                    player.sendMessage(replyMessage);
+                }
+            }).exceptionally(error -> this.logFailure(player, error));
+        }
+    }
+
+    private Void logFailure(Player player, Throwable error) {
+        this.logger.error("Failed to relay a message from {}", player.getUsername(), error);
+        return null;
+    }
+
+    @Override
+    public CompletableFuture<List<String>> suggestAsync(final Invocation invocation) {
+        if (!(invocation.source() instanceof Player)) {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        String arguments = invocation.arguments();
+        int tokenStart = arguments.lastIndexOf(' ') + 1;
+        if (tokenStart >= arguments.length() || arguments.charAt(tokenStart) != '@') {
+            return CompletableFuture.completedFuture(List.of());
+        }
+        String prefix = arguments.substring(tokenStart + 1);
+        return CompletableFuture.supplyAsync(() -> this.crossChatManager.suggestMentions(prefix));
+    }
+}
+
+final class AdminCommand implements SimpleCommand {
+    private final Supersonic plugin;
+
+    public AdminCommand(Supersonic plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public void execute(final Invocation invocation) {
+        CommandSource source = invocation.source();
+        String[] arguments = invocation.arguments();
+        if (arguments.length == 1 && arguments[0].equals("status")) {
+            for (String line : this.plugin.getStatusLines()) {
+                source.sendMessage(Component.text(line));
+            }
+            return;
+        }
+        if (arguments.length != 1 || !arguments[0].equals("reload")) {
+            source.sendMessage(Component.text("Usage: /supersonic <reload|status>", NamedTextColor.RED));
+            return;
         }
+        source.sendMessage(Component.text("Reloading config.yml and whitelist.yml..."));
+        this.plugin.reload().whenComplete((ignored, error) -> {
+            if (error != null) {
+                Throwable cause = error.getCause() != null ? error.getCause() : error;
+                source.sendMessage(Component.text("Reload failed: " + cause.getMessage(), NamedTextColor.RED));
+            } else {
+                source.sendMessage(Component.text("Reloaded config.yml and whitelist.yml.", NamedTextColor.GREEN));
+            }
+        });
+    }
+
+    @Override
+    public List<String> suggest(final Invocation invocation) {
+        return invocation.arguments().length <= 1 ? List.of("reload", "status") : List.of();
+    }
+
+    @Override
+    public boolean hasPermission(final Invocation invocation) {
+        return invocation.source().hasPermission("supersonic.admin");
     }
 }
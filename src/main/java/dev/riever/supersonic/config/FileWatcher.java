@@ -0,0 +1,100 @@
+package dev.riever.supersonic.config;
+
+import org.slf4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Calls a handler when one of the watched files in a directory changes. Editors tend to write a file in several
+// steps, so a handler only runs once its file has been quiet for the debounce delay.
+public class FileWatcher {
+    private final Path directory;
+    private final Map<String, Runnable> handlers;
+    private final long debounceMillis;
+    private final Logger logger;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "supersonic-file-watcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Only touched on the scheduler thread
+    private final Map<String, ScheduledFuture<?>> pending = new HashMap<>();
+    private WatchService watchService;
+
+    public FileWatcher(Path directory, Map<String, Runnable> handlers, long debounceMillis, Logger logger) {
+        this.directory = directory;
+        this.handlers = Map.copyOf(handlers);
+        this.debounceMillis = debounceMillis;
+        this.logger = logger;
+    }
+
+    public void start() {
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+            this.directory.register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        Thread thread = new Thread(this::watch, "supersonic-file-watcher-poll");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.context() instanceof Path path && this.handlers.containsKey(path.toString())) {
+                        String name = path.toString();
+                        this.scheduler.execute(() -> this.debounce(name));
+                    }
+                }
+                if (!key.reset()) {
+                    this.logger.warn("Stopped watching {} as it is no longer accessible", this.directory);
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Stopped
+        }
+    }
+
+    private void debounce(String name) {
+        ScheduledFuture<?> previous = this.pending.get(name);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        this.pending.put(name, this.scheduler.schedule(() -> {
+            this.pending.remove(name);
+            try {
+                this.handlers.get(name).run();
+            } catch (RuntimeException e) {
+                this.logger.error("Failed to handle a change to {}", name, e);
+            }
+        }, this.debounceMillis, TimeUnit.MILLISECONDS));
+    }
+
+    public void stop() {
+        this.scheduler.shutdownNow();
+        try {
+            if (this.watchService != null) {
+                this.watchService.close();
+            }
+        } catch (IOException e) {
+            this.logger.error("Failed to stop watching {}", this.directory, e);
+        }
+    }
+}
@@ -4,6 +4,11 @@ import org.spongepowered.configurate.objectmapping.ConfigSerializable;
 import org.spongepowered.configurate.objectmapping.meta.Comment;
 import org.spongepowered.configurate.objectmapping.meta.Setting;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
 @ConfigSerializable
 public class SupersonicConfig {
     @ConfigSerializable
@@ -14,27 +19,199 @@ public class SupersonicConfig {
         private String channelId = "[Required]";
         @Setting(value = "role-id")
         private String roleId = "[Required]";
+        @Comment("How @mentions in /dsay are matched against member names: exact, ignore-case or unicode-fold.")
+        @Setting(value = "mention-matching")
+        private String mentionMatching = "exact";
+        @Comment("Maximum number of member display names kept for rendering Discord mentions in Minecraft.")
+        @Setting(value = "member-cache-size")
+        private int memberCacheSize = 5000;
+        @Comment("The amount of time (in minutes) a cached member display name stays valid.")
+        @Setting(value = "member-cache-ttl")
+        private int memberCacheTtl = 60;
+        @Comment("The amount of time (in milliseconds) to gather outgoing messages before merging them into one. 0 sends each message on its own.")
+        @Setting(value = "batch-window")
+        private int batchWindowMillis = 500;
+        @Comment("How /dsay messages are posted: \"bot\" sends them as the bot, \"webhooks\" spreads them across the webhooks below.")
+        @Setting(value = "relay-transport")
+        private String relayTransport = "bot";
+        @Comment("Webhook URLs of the relay channel, used when relay-transport is \"webhooks\".")
+        @Setting(value = "webhook-urls")
+        private List<String> webhookUrls = new ArrayList<>();
+        @Comment("Keep one message in the channel listing the servers, edited as players come and go. /servers then links to it.")
+        @Setting(value = "status-board")
+        private boolean statusBoard = false;
+        @Comment("The amount of time (in seconds) to gather player count changes before editing the status board.")
+        @Setting(value = "status-board-interval")
+        private int statusBoardInterval = 10;
+        @Comment("The amount of time (in seconds) between pings of the backend servers shown by /servers. 0 disables pinging.")
+        @Setting(value = "status-poll-interval")
+        private int statusPollInterval = 30;
+        @Comment("The amount of time (in milliseconds) to wait for a backend server to answer a ping before it is shown as offline.")
+        @Setting(value = "status-ping-timeout")
+        private int statusPingTimeout = 2000;
+        @Comment("Limits on how often a player can use /dsay.")
+        @Setting(value = "chat-limit")
+        private ChatLimit chatLimit = new ChatLimit();
+        @Comment("Named lists of servers that /say can send to at once, e.g. survival: [survival-1, survival-2].")
+        @Setting(value = "server-groups")
+        private Map<String, List<String>> serverGroups = new HashMap<>();
 
         public String getBotToken() { return this.botToken; }
         public String getChannelId() { return this.channelId; }
         public String getRoleId() { return this.roleId; }
+        public String getMentionMatching() { return this.mentionMatching; }
+        public int getMemberCacheSize() { return this.memberCacheSize; }
+        public int getMemberCacheTtl() { return this.memberCacheTtl; }
+        public int getBatchWindowMillis() { return this.batchWindowMillis; }
+        public String getRelayTransport() { return this.relayTransport; }
+        public List<String> getWebhookUrls() { return this.webhookUrls; }
+        public boolean isStatusBoard() { return this.statusBoard; }
+        public int getStatusBoardInterval() { return this.statusBoardInterval; }
+        public int getStatusPollInterval() { return this.statusPollInterval; }
+        public int getStatusPingTimeout() { return this.statusPingTimeout; }
+        public ChatLimit getChatLimit() { return this.chatLimit; }
+        public Map<String, List<String>> getServerGroups() { return this.serverGroups; }
+    }
+
+    @ConfigSerializable
+    public static class ChatLimit {
+        @Comment("Number of messages a player can send within the window. 0 disables the limit.")
+        @Setting(value = "max-messages")
+        private int maxMessages = 5;
+        @Comment("The amount of time (in seconds) the message limit applies to.")
+        @Setting(value = "window")
+        private int window = 10;
+        @Comment("Number of a player's recent messages checked for repeats. 0 allows repeated messages.")
+        @Setting(value = "duplicate-history")
+        private int duplicateHistory = 8;
+        @Comment("The amount of time (in seconds) during which the same message cannot be sent again.")
+        @Setting(value = "duplicate-window")
+        private int duplicateWindow = 60;
+
+        public int getMaxMessages() { return this.maxMessages; }
+        public int getWindow() { return this.window; }
+        public int getDuplicateHistory() { return this.duplicateHistory; }
+        public int getDuplicateWindow() { return this.duplicateWindow; }
+    }
+
+    @ConfigSerializable
+    public static class RateLimit {
+        @Comment("Number of auth requests an address can make in a row before being limited.")
+        @Setting(value = "ip-burst")
+        private int ipBurst = 5;
+        @Comment("Number of auth requests an address regains per minute.")
+        @Setting(value = "ip-per-minute")
+        private double ipPerMinute = 3;
+        @Comment("Number of auth requests a player can make in a row before being limited.")
+        @Setting(value = "player-burst")
+        private int playerBurst = 3;
+        @Comment("Number of auth requests a player regains per minute.")
+        @Setting(value = "player-per-minute")
+        private double playerPerMinute = 2;
+        @Comment("Maximum number of addresses and players tracked each. The least recently seen ones are forgotten first.")
+        @Setting(value = "max-tracked-keys")
+        private int maxTrackedKeys = 10000;
+
+        public int getIpBurst() { return this.ipBurst; }
+        public double getIpPerMinute() { return this.ipPerMinute; }
+        public int getPlayerBurst() { return this.playerBurst; }
+        public double getPlayerPerMinute() { return this.playerPerMinute; }
+        public int getMaxTrackedKeys() { return this.maxTrackedKeys; }
     }
 
     @ConfigSerializable
     public static class Auth {
-        @Comment("Type of storage to store auth requests. Currently only supports in-memory.")
+        @Comment("Type of storage to store auth requests: in-memory, or sqlite to keep them across restarts and share them between proxies.")
         @Setting(value = "storage-type")
         private String storageType = "in-memory";
-        @Comment("The amount of time (in minutes) between each scheduled cleanup of expired auth requests.")
+        @Comment("SQLite database file used when storage-type is sqlite, relative to the plugin folder. Proxies sharing requests must point to the same file.")
+        @Setting(value = "database-file")
+        private String databaseFile = "auth.db";
+        @Comment("The amount of time (in minutes) between each scheduled cleanup of expired auth requests in the sqlite storage. In-memory requests are removed as they expire.")
         @Setting(value = "cleaner-period")
         private int cleanerPeriod = 5;
         @Comment("The maximum amount of time (in minutes) to keep auth requests in memory before they are automatically removed.")
         @Setting(value = "max-request-age")
         private int maxRequestAge = 5;
+        @Comment("The amount of time (in minutes) between rewrites of whitelist.yml with the changes journaled since. 0 only rewrites it on shutdown.")
+        @Setting(value = "whitelist-compaction-period")
+        private int whitelistCompactionPeriod = 10;
+        @Comment("Limits on auth requests from unknown players, checked before a code is handed out.")
+        @Setting(value = "rate-limit")
+        private RateLimit rateLimit = new RateLimit();
 
         public String getStorageType() { return this.storageType; }
+        public String getDatabaseFile() { return this.databaseFile; }
         public int getCleanerPeriod() { return this.cleanerPeriod; }
         public int getMaxRequestAge() { return this.maxRequestAge; }
+        public int getWhitelistCompactionPeriod() { return this.whitelistCompactionPeriod; }
+        public RateLimit getRateLimit() { return this.rateLimit; }
+    }
+
+    @ConfigSerializable
+    public static class Outbound {
+        @Comment("Maximum number of requests handed to Discord at once. The rest wait in the queues below.")
+        @Setting(value = "max-in-flight")
+        private int maxInFlight = 8;
+        @Comment("Maximum number of queued slash command responses.")
+        @Setting(value = "interaction-capacity")
+        private int interactionCapacity = 100;
+        @Comment("Maximum number of queued /dsay messages.")
+        @Setting(value = "chat-capacity")
+        private int chatCapacity = 200;
+        @Comment("What to do when the chat queue is full: reject, drop-oldest or coalesce.")
+        @Setting(value = "chat-policy")
+        private String chatPolicy = "coalesce";
+        @Comment("Maximum number of queued join/leave messages.")
+        @Setting(value = "presence-capacity")
+        private int presenceCapacity = 50;
+        @Comment("What to do when the join/leave queue is full: reject, drop-oldest or coalesce.")
+        @Setting(value = "presence-policy")
+        private String presencePolicy = "coalesce";
+
+        public int getMaxInFlight() { return this.maxInFlight; }
+        public int getInteractionCapacity() { return this.interactionCapacity; }
+        public int getChatCapacity() { return this.chatCapacity; }
+        public String getChatPolicy() { return this.chatPolicy; }
+        public int getPresenceCapacity() { return this.presenceCapacity; }
+        public String getPresencePolicy() { return this.presencePolicy; }
+    }
+
+    @ConfigSerializable
+    public static class Messages {
+        @Comment("Posted to Discord when a player joins a server. Placeholders: {player}, {server}")
+        @Setting(value = "join")
+        private String join = "**{player}** joined `{server}`.";
+        @Comment("Posted to Discord when a player leaves. Placeholders: {player}, {server}")
+        @Setting(value = "leave")
+        private String leave = "**{player}** left `{server}`.";
+        @Comment("Posted to Discord for /dsay. Placeholders: {player}, {server}, {message}")
+        @Setting(value = "chat-to-discord")
+        private String chatToDiscord = "**{player}** from `{server}`: {message}";
+        @Comment("Posted to Discord for /dsay when the player is not on a server. Placeholders: {player}, {message}")
+        @Setting(value = "chat-to-discord-no-server")
+        private String chatToDiscordNoServer = "**{player}**: {message}";
+        @Comment("Shown in Minecraft for Discord's /say, in MiniMessage format. Placeholders: <sender>, <message>")
+        @Setting(value = "chat-from-discord")
+        private String chatFromDiscord = "<gold>[Discord]</gold> <green><sender></green>: <message>";
+        @Comment("Shown in Minecraft after /dsay, in MiniMessage format. Placeholders: <player>, <message>")
+        @Setting(value = "chat-echo")
+        private String chatEcho = "<green><player></green> to <gold>Discord</gold>: <message>";
+        @Comment("Name shown for /dsay messages relayed through webhooks. Placeholders: {player}")
+        @Setting(value = "webhook-username")
+        private String webhookUsername = "{player}";
+        @Comment("Avatar shown for /dsay messages relayed through webhooks. Placeholders: {player}, {uuid}")
+        @Setting(value = "webhook-avatar-url")
+        private String webhookAvatarUrl = "https://mc-heads.net/avatar/{uuid}";
+
+        public String getJoin() { return this.join; }
+        public String getLeave() { return this.leave; }
+        public String getChatToDiscord() { return this.chatToDiscord; }
+        public String getChatToDiscordNoServer() { return this.chatToDiscordNoServer; }
+        public String getChatFromDiscord() { return this.chatFromDiscord; }
+        public String getChatEcho() { return this.chatEcho; }
+        public String getWebhookUsername() { return this.webhookUsername; }
+        public String getWebhookAvatarUrl() { return this.webhookAvatarUrl; }
     }
 
     @Comment("Discord API settings.")
@@ -45,11 +222,26 @@ public class SupersonicConfig {
     @Setting(value = "storage")
     private Auth auth = new Auth();
 
+    @Comment("Outbound Discord queue settings.")
+    @Setting(value = "outbound")
+    private Outbound outbound = new Outbound();
+
+    @Comment("Message formats.")
+    @Setting(value = "messages")
+    private Messages messages = new Messages();
+
+    @Comment("Reload config.yml and whitelist.yml when they are edited. /supersonic reload works either way.")
+    @Setting(value = "watch-files")
+    private boolean watchFiles = true;
+
     @Comment("Random seed for the random number generator. Leave empty to use the system time as seed.")
     @Setting(value = "seed")
     private String seed = "";
 
     public Auth getAuth() { return this.auth; }
     public Discord getDiscord() { return this.discord; }
+    public Messages getMessages() { return this.messages; }
+    public Outbound getOutbound() { return this.outbound; }
     public String getSeed() { return this.seed; }
+    public boolean isWatchFiles() { return this.watchFiles; }
 }
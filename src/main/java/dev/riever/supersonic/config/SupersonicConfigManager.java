@@ -13,7 +13,8 @@ public class SupersonicConfigManager {
     private final Path configFile;
     private final Logger logger;
     private CommentedConfigurationNode root;
-    private SupersonicConfig config;
+    // Replaced as a whole on reload; readers always see one complete version
+    private volatile SupersonicConfig config;
 
     public SupersonicConfigManager(Path configFile, Logger logger) {
         this.configFile = configFile;
@@ -38,16 +39,25 @@ public class SupersonicConfigManager {
         }
     }
 
-    public SupersonicConfig load() {
+    public synchronized SupersonicConfig load() {
+        SupersonicConfig config = this.parse();
+        this.config = config;
+        return config;
+    }
+
+    // Reads the config without making it current, so whatever depends on it can be prepared first
+    public SupersonicConfig parse() {
         try {
-            this.root = this.loader.load();
-            this.config = this.root.get(SupersonicConfig.class);
-            return this.config;
+            return this.loader.load().get(SupersonicConfig.class);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    public void setConfig(SupersonicConfig config) {
+        this.config = config;
+    }
+
     public SupersonicConfig getConfig() {
         return this.config;
     }
@@ -53,10 +53,18 @@ public class Whitelist {
         return this.entries.add(new Entry(player));
     }
 
+    public boolean addPlayer(UUID uuid, String username) {
+        return this.entries.add(new Entry(uuid, username));
+    }
+
     public void removePlayer(Player player) {
         this.entries.remove(new Entry(player));
     }
 
+    public void removePlayer(UUID uuid) {
+        this.entries.remove(new Entry(uuid, null));
+    }
+
     public boolean contains(Player player) {
         return this.entries.contains(new Entry(player));
     }
@@ -1,53 +1,315 @@
 package dev.riever.supersonic.config;
 
 import com.velocitypowered.api.proxy.Player;
+import dev.riever.supersonic.utils.UuidSet;
+import org.slf4j.Logger;
 import org.spongepowered.configurate.CommentedConfigurationNode;
 import org.spongepowered.configurate.yaml.NodeStyle;
 import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
+// The whitelist file is only a snapshot. Changes are appended to a journal next to it by a background writer, and
+// folded back into the snapshot periodically and on shutdown, so adding a player never rewrites the whole file.
 public class WhitelistManager {
     private final YamlConfigurationLoader loader;
+    private final Path whitelistFile;
+    private final Path journalFile;
+    private final int compactionPeriod;
+    private final Logger logger;
+    private final ScheduledExecutorService writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "supersonic-whitelist-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Logins are checked against this index without locking. The whitelist itself keeps the usernames, and both
+    // are only changed or replaced while holding this.
+    private volatile UuidSet index;
     private CommentedConfigurationNode root;
     private Whitelist whitelist;
+    private WhitelistJournal journal;
+    // The file's modification time as of the last load or save, to tell our own writes from edits
+    private FileTime knownModifiedTime;
+    // The entries the file held as of the last load or save, to tell what a hand edit changed
+    private Set<Whitelist.Entry> knownEntries;
 
-    public WhitelistManager(Path whitelistFile) {
+    public WhitelistManager(Path whitelistFile, int compactionPeriod, Logger logger) {
         this.loader = YamlConfigurationLoader.builder()
                 .path(whitelistFile)
                 .nodeStyle(NodeStyle.BLOCK)
                 .build();
+        this.whitelistFile = whitelistFile;
+        this.journalFile = whitelistFile.resolveSibling(whitelistFile.getFileName() + ".journal");
+        this.compactionPeriod = compactionPeriod;
+        this.logger = logger;
     }
 
     public void load() {
         try {
-            this.root = this.loader.load();
-            this.whitelist = this.root.get(Whitelist.class);
+            synchronized (this) {
+                this.readSnapshot();
+            }
+            this.journal = new WhitelistJournal(this.journalFile, this.writer, this.logger);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
+        // A period of 0 or less leaves compaction to shutdown
+        if (this.compactionPeriod > 0) {
+            this.writer.scheduleAtFixedRate(this::compact, this.compactionPeriod, this.compactionPeriod, TimeUnit.MINUTES);
+        }
+    }
+
+    // Parses the snapshot and the journal into a new whitelist and index, and only then replaces the current ones.
+    // The whole journal is replayed, as everything in it was written before the file was read. What a hand edit
+    // changed compared to the file we last saw is then applied again on top, so the edit wins over older journaled
+    // changes. At startup there is nothing to compare with, and the journal wins.
+    private void readSnapshot() throws Exception {
+        FileTime modifiedTime = Files.exists(this.whitelistFile) ? Files.getLastModifiedTime(this.whitelistFile) : null;
+        CommentedConfigurationNode root = this.loader.load();
+        Whitelist whitelist = root.get(Whitelist.class);
+        Set<Whitelist.Entry> fileEntries = Set.copyOf(whitelist.getEntries());
+        int replayed = WhitelistJournal.replay(this.journalFile, whitelist);
+        if (replayed > 0) {
+            this.logger.info("Replayed {} whitelist change(s) from the journal", replayed);
+        }
+        if (this.knownEntries != null) {
+            for (Whitelist.Entry entry : this.knownEntries) {
+                if (!fileEntries.contains(entry)) {
+                    whitelist.getEntries().remove(entry);
+                }
+            }
+            for (Whitelist.Entry entry : fileEntries) {
+                if (!this.knownEntries.contains(entry)) {
+                    whitelist.getEntries().add(entry);
+                }
+            }
+        }
+        UuidSet index = new UuidSet();
+        for (Whitelist.Entry entry : whitelist.getEntries()) {
+            index.add(entry.getUUID());
+        }
+        this.root = root;
+        this.whitelist = whitelist;
+        this.index = index;
+        this.knownModifiedTime = modifiedTime;
+        this.knownEntries = fileEntries;
+    }
+
+    // Picks up hand edits to the whitelist file. Runs on the writer, after the changes already made in memory have
+    // reached the journal, so that replaying it on top of the edited file keeps them. The result is compacted right
+    // away, as replaying the same journal after a restart would no longer know what the edit removed. Returns
+    // whether it reloaded.
+    public CompletableFuture<Boolean> reload(boolean force) {
+        return CompletableFuture.supplyAsync(() -> {
+            synchronized (this) {
+                try {
+                    if (!force && !this.isModifiedExternally()) {
+                        return false;
+                    }
+                    this.journal.flush();
+                    this.readSnapshot();
+                    if (!this.journal.isEmpty()) {
+                        this.save();
+                        this.journal.truncate();
+                    }
+                    return true;
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }, this.writer);
+    }
+
+    private boolean isModifiedExternally() throws IOException {
+        return Files.exists(this.whitelistFile) && !Files.getLastModifiedTime(this.whitelistFile).equals(this.knownModifiedTime);
     }
 
     public void save() {
         try {
-            this.root.set(Whitelist.class, this.whitelist);
+            Set<Whitelist.Entry> entries;
+            synchronized (this) {
+                this.root.set(Whitelist.class, this.whitelist);
+                entries = Set.copyOf(this.whitelist.getEntries());
+            }
             this.loader.save(this.root);
+            synchronized (this) {
+                this.knownModifiedTime = Files.getLastModifiedTime(this.whitelistFile);
+                this.knownEntries = entries;
+            }
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
-    public void addPlayer(Player player) {
-        if (this.whitelist.addPlayer(player)) {
+    // Runs on the writer, after every change already handed to the journal. Changes made while the snapshot is
+    // written are appended again after the truncation, which is harmless as replaying them is idempotent.
+    private void compact() {
+        try {
+            this.journal.flush();
+            if (this.journal.isEmpty()) {
+                return;
+            }
+            synchronized (this) {
+                // Do not overwrite an edit the watcher has not picked up yet
+                if (this.isModifiedExternally()) {
+                    this.readSnapshot();
+                }
+            }
             this.save();
+            this.journal.truncate();
+        } catch (Exception e) {
+            this.logger.error("Failed to compact the whitelist journal", e);
         }
     }
 
-    public void removePlayer(Player player) {
+    public void addPlayer(Player player) {
+        this.addPlayer(player.getUniqueId(), player.getUsername());
+    }
+
+    // Journaled while holding this, so a reload never sees a change in memory that is not yet in the journal
+    public synchronized void addPlayer(UUID uuid, String username) {
+        if (!this.whitelist.addPlayer(uuid, username)) {
+            return;
+        }
+        this.index.add(uuid);
+        this.journal.append(WhitelistJournal.ADD, uuid + " " + username);
+    }
+
+    public synchronized void removePlayer(Player player) {
         this.whitelist.removePlayer(player);
+        this.index.remove(player.getUniqueId());
+        this.journal.append(WhitelistJournal.REMOVE, player.getUniqueId().toString());
     }
 
     public boolean check(Player player) {
-        return this.whitelist.contains(player);
+        return this.index.contains(player.getUniqueId());
+    }
+
+    public void shutdown() {
+        this.writer.execute(this::compact);
+        this.writer.shutdown();
+        try {
+            if (!this.writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                this.logger.warn("Timed out while writing the whitelist");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        this.journal.close();
+    }
+}
+
+final class WhitelistJournal {
+    static final char ADD = '+';
+    static final char REMOVE = '-';
+
+    private final FileChannel channel;
+    private final ScheduledExecutorService writer;
+    private final Logger logger;
+
+    // Guarded by this
+    private List<String> pending = new ArrayList<>();
+    private boolean flushScheduled = false;
+
+    WhitelistJournal(Path journalFile, ScheduledExecutorService writer, Logger logger) throws IOException {
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.writer = writer;
+        this.logger = logger;
+    }
+
+    // Applies every complete record in the journal. A torn last line from a crash is skipped.
+    static int replay(Path journalFile, Whitelist whitelist) throws IOException {
+        if (!Files.exists(journalFile)) {
+            return 0;
+        }
+        int replayed = 0;
+        for (String line : Files.readAllLines(journalFile, StandardCharsets.UTF_8)) {
+            String[] fields = line.split(" ");
+            try {
+                if (fields.length == 3 && fields[0].equals(String.valueOf(ADD))) {
+                    whitelist.addPlayer(UUID.fromString(fields[1]), fields[2]);
+                    replayed++;
+                } else if (fields.length == 2 && fields[0].equals(String.valueOf(REMOVE))) {
+                    whitelist.removePlayer(UUID.fromString(fields[1]));
+                    replayed++;
+                }
+            } catch (IllegalArgumentException ignored) {
+            }
+        }
+        return replayed;
+    }
+
+    // Records appended while a flush is pending join it, so a burst of changes costs one write and one fsync
+    public synchronized void append(char type, String fields) {
+        this.pending.add(type + " " + fields);
+        if (!this.flushScheduled) {
+            this.flushScheduled = true;
+            this.writer.execute(this::flush);
+        }
+    }
+
+    public void flush() {
+        List<String> batch;
+        synchronized (this) {
+            batch = this.pending;
+            this.pending = new ArrayList<>();
+            this.flushScheduled = false;
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        StringBuilder builder = new StringBuilder();
+        for (String record : batch) {
+            builder.append(record).append('\n');
+        }
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(builder.toString().getBytes(StandardCharsets.UTF_8));
+            while (buffer.hasRemaining()) {
+                this.channel.write(buffer);
+            }
+            this.channel.force(false);
+        } catch (IOException e) {
+            this.logger.error("Failed to write {} whitelist change(s) to the journal", batch.size(), e);
+        }
+    }
+
+    public boolean isEmpty() {
+        try {
+            return this.channel.size() == 0;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void truncate() {
+        try {
+            this.channel.truncate(0);
+            this.channel.force(false);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void close() {
+        try {
+            this.channel.close();
+        } catch (IOException e) {
+            this.logger.error("Failed to close the whitelist journal", e);
+        }
     }
 }
@@ -1,43 +1,72 @@
 package dev.riever.supersonic.storage;
 
-import com.velocitypowered.api.proxy.Player;
+import dev.riever.supersonic.utils.TimingWheel;
 import org.slf4j.Logger;
 
 import java.time.Instant;
+import java.util.UUID;
 import java.util.concurrent.*;
 
 public class InMemoryPlayerAuthStorage implements PlayerAuthStorage {
-    record AuthRequest(Player player, Instant expiresAt) {
+    private static final long TICK_MILLIS = 1000;
+    private static final int WHEEL_SLOTS = 1024;
+
+    record AuthRequest(PlayerIdentity player, Instant expiresAt) {
         public boolean isExpired() {
             return this.expiresAt().isBefore(Instant.now());
         }
     }
 
+    private record Expiry(String otp, Instant expiresAt) {}
+
     private final ConcurrentMap<String, AuthRequest> authRequests = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UUID, String> otpByPlayer = new ConcurrentHashMap<>();
+    // Every request, and every renewal of one, has an entry due at its expiry. An entry left behind by a renewal or
+    // a redeemed code no longer matches the request's expiry when it comes due, and is dropped.
+    private final TimingWheel<Expiry> expiryWheel = new TimingWheel<>(TICK_MILLIS, WHEEL_SLOTS, this::expire);
     private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor();
-    private final int cleanerPeriod;
     private final Logger logger;
 
-    public InMemoryPlayerAuthStorage(Logger logger, int cleanerPeriod) {
+    public InMemoryPlayerAuthStorage(Logger logger) {
         this.logger = logger;
-        this.cleanerPeriod = cleanerPeriod;
     }
 
-    public InMemoryPlayerAuthStorage(Logger logger) {
-        this(logger, 5);
+    public void initialize() {
+        this.cleaner.scheduleAtFixedRate(this::clearExpiredAuthRequests, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        this.logger.info("Auth requests will be removed as they expire.");
     }
 
-    public void initialize() {
-        this.scheduleCleaner(this.cleanerPeriod);
-        this.logger.info("Scheduled auth requests to be cleaned every {} minute{}.", this.cleanerPeriod, this.cleanerPeriod == 1 ? "" : "s");
+    public boolean savePlayerAuth(PlayerIdentity player, String otp, Instant expiresAt) {
+        if (this.authRequests.putIfAbsent(otp, new AuthRequest(player, expiresAt)) != null) {
+            return false;
+        }
+        this.otpByPlayer.put(player.uuid(), otp);
+        this.scheduleExpiry(otp, expiresAt);
+        return true;
     }
 
-    public boolean savePlayerAuth(Player player, String otp, Instant expiresAt) {
-        return this.authRequests.putIfAbsent(otp, new AuthRequest(player, expiresAt)) == null;
+    public String renewPlayerAuth(UUID uuid, Instant expiresAt) {
+        String otp = this.otpByPlayer.get(uuid);
+        if (otp == null) {
+            return null;
+        }
+        AuthRequest authRequest = this.authRequests.get(otp);
+        if (authRequest == null || authRequest.isExpired() || !authRequest.player().uuid().equals(uuid)) {
+            return null;
+        }
+        // Fails if the code was redeemed in the meantime
+        if (!this.authRequests.replace(otp, authRequest, new AuthRequest(authRequest.player(), expiresAt))) {
+            return null;
+        }
+        this.scheduleExpiry(otp, expiresAt);
+        return otp;
     }
 
-    public Player authenticate(String otp) {
+    public PlayerIdentity authenticate(String otp) {
         AuthRequest authRequest = this.authRequests.remove(otp);
+        if (authRequest != null) {
+            this.otpByPlayer.remove(authRequest.player().uuid(), otp);
+        }
         if (authRequest == null || authRequest.isExpired()) {
             return null;
         }
@@ -45,14 +74,32 @@ public class InMemoryPlayerAuthStorage implements PlayerAuthStorage {
     }
 
     public void clearExpiredAuthRequests() {
-        this.authRequests.values().removeIf(AuthRequest::isExpired);
+        this.expiryWheel.advance(System.currentTimeMillis());
+    }
+
+    // Rounded up to the next millisecond, as toEpochMilli drops the rest and the entry would otherwise come due
+    // just before the request expires
+    private void scheduleExpiry(String otp, Instant expiresAt) {
+        this.expiryWheel.schedule(new Expiry(otp, expiresAt), expiresAt.toEpochMilli() + 1);
     }
 
-    private void scheduleCleaner(int minutes) {
-        this.cleaner.scheduleAtFixedRate(this::clearExpiredAuthRequests, 0, minutes, TimeUnit.MINUTES);
+    private void expire(Expiry expiry) {
+        AuthRequest authRequest = this.authRequests.get(expiry.otp());
+        if (authRequest == null || !authRequest.expiresAt().equals(expiry.expiresAt())) {
+            return;
+        }
+        if (this.authRequests.remove(expiry.otp(), authRequest)) {
+            this.otpByPlayer.remove(authRequest.player().uuid(), expiry.otp());
+        }
     }
 
     public void clearAllAuthRequests() {
         this.authRequests.clear();
+        this.otpByPlayer.clear();
+    }
+
+    @Override
+    public void shutdown() {
+        this.cleaner.shutdown();
     }
 }
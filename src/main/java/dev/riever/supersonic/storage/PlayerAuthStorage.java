@@ -1,11 +1,15 @@
 package dev.riever.supersonic.storage;
 
-import com.velocitypowered.api.proxy.Player;
-
 import java.time.Instant;
+import java.util.UUID;
 
+// Called from several login threads at once. Calls for different players must not wait on each other any longer
+// than the storage itself requires.
 public interface PlayerAuthStorage {
-    boolean savePlayerAuth(Player player, String otp, Instant expiresAt);
-    Player authenticate(String otp);
+    boolean savePlayerAuth(PlayerIdentity player, String otp, Instant expiresAt);
+    PlayerIdentity authenticate(String otp);
+    // Extends the player's pending request, if any, and returns its code
+    String renewPlayerAuth(UUID uuid, Instant expiresAt);
     default void initialize() {}
+    default void shutdown() {}
 }
@@ -0,0 +1,12 @@
+package dev.riever.supersonic.storage;
+
+import com.velocitypowered.api.proxy.Player;
+
+import java.util.UUID;
+
+// What the storages keep of a player, as a Player object does not survive a restart or cross to another proxy
+public record PlayerIdentity(UUID uuid, String username) {
+    public static PlayerIdentity of(Player player) {
+        return new PlayerIdentity(player.getUniqueId(), player.getUsername());
+    }
+}
@@ -0,0 +1,172 @@
+package dev.riever.supersonic.storage;
+
+import org.slf4j.Logger;
+import org.sqlite.SQLiteConfig;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Keeps auth requests in a SQLite database, so they survive restarts and can be shared by several proxies on the
+// same host pointing at the same file. WAL mode lets readers run alongside the single writer, and the busy timeout
+// makes a proxy wait for the other's write lock instead of failing.
+public class SqlitePlayerAuthStorage implements PlayerAuthStorage {
+    private static final int BUSY_TIMEOUT_MILLIS = 5000;
+    private static final int PURGE_BATCH_SIZE = 500;
+
+    private static final String CREATE_TABLE = """
+            CREATE TABLE IF NOT EXISTS auth_requests (
+                otp TEXT PRIMARY KEY,
+                uuid TEXT NOT NULL,
+                username TEXT NOT NULL,
+                expires_at INTEGER NOT NULL
+            )""";
+    private static final String CREATE_EXPIRY_INDEX =
+            "CREATE INDEX IF NOT EXISTS auth_requests_expires_at ON auth_requests (expires_at)";
+    private static final String CREATE_PLAYER_INDEX =
+            "CREATE INDEX IF NOT EXISTS auth_requests_uuid ON auth_requests (uuid)";
+    // A code held by an expired request may be handed out again before the purge gets to it
+    private static final String INSERT = """
+            INSERT INTO auth_requests (otp, uuid, username, expires_at) VALUES (?, ?, ?, ?)
+            ON CONFLICT (otp) DO UPDATE SET uuid = excluded.uuid, username = excluded.username, expires_at = excluded.expires_at
+            WHERE auth_requests.expires_at < ?""";
+    // Deleting and reading in one statement means a code can only be redeemed once, even across proxies
+    private static final String TAKE = "DELETE FROM auth_requests WHERE otp = ? RETURNING uuid, username, expires_at";
+    private static final String RENEW =
+            "UPDATE auth_requests SET expires_at = ? WHERE uuid = ? AND expires_at >= ? RETURNING otp";
+    private static final String PURGE = """
+            DELETE FROM auth_requests WHERE rowid IN (
+                SELECT rowid FROM auth_requests WHERE expires_at < ? LIMIT ?
+            )""";
+
+    private final Path databaseFile;
+    private final int cleanerPeriod;
+    private final Logger logger;
+    private final ScheduledExecutorService cleaner = Executors.newSingleThreadScheduledExecutor();
+
+    // Guarded by this
+    private Connection connection;
+    private PreparedStatement insert;
+    private PreparedStatement take;
+    private PreparedStatement renew;
+    private PreparedStatement purge;
+
+    public SqlitePlayerAuthStorage(Path databaseFile, int cleanerPeriod, Logger logger) {
+        this.databaseFile = databaseFile;
+        this.cleanerPeriod = cleanerPeriod;
+        this.logger = logger;
+    }
+
+    @Override
+    public synchronized void initialize() {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
+        config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+        try {
+            // Created through the config rather than DriverManager, which cannot see drivers in a plugin class loader
+            this.connection = config.createConnection("jdbc:sqlite:" + this.databaseFile.toAbsolutePath());
+            try (Statement statement = this.connection.createStatement()) {
+                statement.executeUpdate(CREATE_TABLE);
+                statement.executeUpdate(CREATE_EXPIRY_INDEX);
+                statement.executeUpdate(CREATE_PLAYER_INDEX);
+            }
+            this.insert = this.connection.prepareStatement(INSERT);
+            this.take = this.connection.prepareStatement(TAKE);
+            this.renew = this.connection.prepareStatement(RENEW);
+            this.purge = this.connection.prepareStatement(PURGE);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        this.cleaner.scheduleAtFixedRate(this::clearExpiredAuthRequests, 0, this.cleanerPeriod, TimeUnit.MINUTES);
+        this.logger.info("Opened auth request database at {}", this.databaseFile);
+    }
+
+    @Override
+    public synchronized boolean savePlayerAuth(PlayerIdentity player, String otp, Instant expiresAt) {
+        try {
+            this.insert.setString(1, otp);
+            this.insert.setString(2, player.uuid().toString());
+            this.insert.setString(3, player.username());
+            this.insert.setLong(4, expiresAt.toEpochMilli());
+            this.insert.setLong(5, Instant.now().toEpochMilli());
+            return this.insert.executeUpdate() == 1;
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized PlayerIdentity authenticate(String otp) {
+        try {
+            this.take.setString(1, otp);
+            try (ResultSet result = this.take.executeQuery()) {
+                if (!result.next() || result.getLong("expires_at") < Instant.now().toEpochMilli()) {
+                    return null;
+                }
+                return new PlayerIdentity(UUID.fromString(result.getString("uuid")), result.getString("username"));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public synchronized String renewPlayerAuth(UUID uuid, Instant expiresAt) {
+        try {
+            this.renew.setLong(1, expiresAt.toEpochMilli());
+            this.renew.setString(2, uuid.toString());
+            this.renew.setLong(3, Instant.now().toEpochMilli());
+            try (ResultSet result = this.renew.executeQuery()) {
+                return result.next() ? result.getString("otp") : null;
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    // Deletes in small batches so the write lock is never held long enough to stall the other proxies
+    public void clearExpiredAuthRequests() {
+        long now = Instant.now().toEpochMilli();
+        int total = 0;
+        try {
+            while (true) {
+                int deleted;
+                synchronized (this) {
+                    this.purge.setLong(1, now);
+                    this.purge.setInt(2, PURGE_BATCH_SIZE);
+                    deleted = this.purge.executeUpdate();
+                }
+                total += deleted;
+                if (deleted < PURGE_BATCH_SIZE) {
+                    break;
+                }
+            }
+        } catch (SQLException e) {
+            this.logger.error("Failed to clear expired auth requests", e);
+        }
+        if (total > 0) {
+            this.logger.debug("Cleared {} expired auth request(s)", total);
+        }
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        this.cleaner.shutdown();
+        try {
+            if (this.connection != null) {
+                this.connection.close();
+            }
+        } catch (SQLException e) {
+            this.logger.error("Failed to close the auth request database", e);
+        }
+    }
+}
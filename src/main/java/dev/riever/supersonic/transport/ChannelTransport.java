@@ -0,0 +1,19 @@
+package dev.riever.supersonic.transport;
+
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+public class ChannelTransport implements DiscordTransport {
+    private final Supplier<TextChannel> channel;
+
+    public ChannelTransport(Supplier<TextChannel> channel) {
+        this.channel = channel;
+    }
+
+    @Override
+    public CompletableFuture<?> send(OutboundMessage message) {
+        return this.channel.get().sendMessage(message.content()).submit();
+    }
+}
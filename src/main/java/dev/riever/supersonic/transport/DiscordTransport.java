@@ -0,0 +1,9 @@
+package dev.riever.supersonic.transport;
+
+import java.util.concurrent.CompletableFuture;
+
+public interface DiscordTransport {
+    CompletableFuture<?> send(OutboundMessage message);
+    default boolean supportsAuthors() { return false; }
+    default void shutdown() {}
+}
@@ -0,0 +1,153 @@
+package dev.riever.supersonic.transport;
+
+import org.slf4j.Logger;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+public class MessageBatcher {
+    public static final int MAX_MESSAGE_LENGTH = 2000;
+
+    private final Consumer<OutboundMessage> sink;
+    private final long windowMillis;
+    private final Logger logger;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "supersonic-message-batcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Guarded by this
+    private final StringBuilder pending = new StringBuilder();
+    private OutboundMessage pendingAuthor;
+    private int pendingCount = 0;
+    private long pendingSinceNanos = 0;
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushedMessages = new AtomicLong();
+    private final AtomicLong totalFlushLatencyNanos = new AtomicLong();
+    private volatile int lastBatchSize = 0;
+
+    public MessageBatcher(Consumer<OutboundMessage> sink, long windowMillis, Logger logger) {
+        this.sink = sink;
+        this.windowMillis = windowMillis;
+        this.logger = logger;
+    }
+
+    // Messages are delivered to the sink in submission order. Consecutive messages by the same author are joined
+    // by newlines into as few messages as fit.
+    public synchronized void submit(OutboundMessage message) {
+        String content = message.content();
+        if (this.pendingCount > 0 && !this.pendingAuthor.hasSameAuthor(message)) {
+            this.flush();
+        }
+        if (content.length() > MAX_MESSAGE_LENGTH) {
+            this.flush();
+            int start = 0;
+            while (start < content.length()) {
+                int end = splitPoint(content, start);
+                this.append(message, content.substring(start, end));
+                this.flush();
+                // The line break or space the message was split at is not carried over
+                start = end < content.length() && Character.isWhitespace(content.charAt(end)) ? end + 1 : end;
+            }
+            return;
+        }
+        if (this.pendingCount > 0 && this.pending.length() + 1 + content.length() > MAX_MESSAGE_LENGTH) {
+            this.flush();
+        }
+        this.append(message, content);
+        if (this.windowMillis <= 0) {
+            this.flush();
+        } else if (this.scheduledFlush == null) {
+            this.scheduledFlush = this.flusher.schedule(this::flush, this.windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // Where the part starting at start should end: at the last line break that fits, otherwise at the last space, so
+    // that words, markdown and mentions stay whole. Only a part without either is cut hard, never between the two
+    // halves of a surrogate pair.
+    static int splitPoint(String content, int start) {
+        int limit = start + MAX_MESSAGE_LENGTH;
+        if (limit >= content.length()) {
+            return content.length();
+        }
+        int newline = content.lastIndexOf('\n', limit);
+        if (newline > start) {
+            return newline;
+        }
+        for (int i = limit; i > start; i--) {
+            if (Character.isWhitespace(content.charAt(i))) {
+                return i;
+            }
+        }
+        return Character.isHighSurrogate(content.charAt(limit - 1)) ? limit - 1 : limit;
+    }
+
+    private void append(OutboundMessage message, String content) {
+        if (this.pendingCount == 0) {
+            this.pendingSinceNanos = System.nanoTime();
+            this.pendingAuthor = message;
+        } else {
+            this.pending.append('\n');
+            this.pendingAuthor = this.pendingAuthor.withMentionsOf(message);
+        }
+        this.pending.append(content);
+        this.pendingCount++;
+    }
+
+    public synchronized void flush() {
+        if (this.scheduledFlush != null) {
+            this.scheduledFlush.cancel(false);
+            this.scheduledFlush = null;
+        }
+        if (this.pendingCount == 0) {
+            return;
+        }
+        OutboundMessage batch = this.pendingAuthor.withContent(this.pending.toString());
+        int batchSize = this.pendingCount;
+        long latency = System.nanoTime() - this.pendingSinceNanos;
+        this.pending.setLength(0);
+        this.pendingCount = 0;
+        this.pendingAuthor = null;
+
+        this.lastBatchSize = batchSize;
+        this.flushCount.incrementAndGet();
+        this.flushedMessages.addAndGet(batchSize);
+        this.totalFlushLatencyNanos.addAndGet(latency);
+        this.logger.debug("Flushed {} message(s) to Discord after {} ms", batchSize, TimeUnit.NANOSECONDS.toMillis(latency));
+        try {
+            this.sink.accept(batch);
+        } catch (RuntimeException e) {
+            this.logger.error("Failed to send a batch of {} message(s) to Discord", batchSize, e);
+        }
+    }
+
+    public void shutdown() {
+        this.flush();
+        this.flusher.shutdown();
+    }
+
+    public int getLastBatchSize() {
+        return this.lastBatchSize;
+    }
+
+    public double getAverageBatchSize() {
+        long flushes = this.flushCount.get();
+        return flushes == 0 ? 0 : (double) this.flushedMessages.get() / flushes;
+    }
+
+    public double getAverageFlushLatencyMillis() {
+        long flushes = this.flushCount.get();
+        return flushes == 0 ? 0 : this.totalFlushLatencyNanos.get() / 1_000_000.0 / flushes;
+    }
+
+    public long getFlushCount() {
+        return this.flushCount.get();
+    }
+}
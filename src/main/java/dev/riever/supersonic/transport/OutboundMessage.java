@@ -0,0 +1,35 @@
+package dev.riever.supersonic.transport;
+
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.Set;
+
+// A message headed for the relay channel. Messages with an author are shown under that name and avatar
+// by transports that support it. Only the members in mentionedUserIds may be pinged by the message.
+public record OutboundMessage(String content, String username, String avatarUrl, Set<String> mentionedUserIds) {
+    public static OutboundMessage of(String content) {
+        return new OutboundMessage(content, null, null, Set.of());
+    }
+
+    public boolean hasAuthor() {
+        return this.username != null;
+    }
+
+    public boolean hasSameAuthor(OutboundMessage other) {
+        return Objects.equals(this.username, other.username) && Objects.equals(this.avatarUrl, other.avatarUrl);
+    }
+
+    public OutboundMessage withContent(String content) {
+        return new OutboundMessage(content, this.username, this.avatarUrl, this.mentionedUserIds);
+    }
+
+    // Used when messages are merged, so the merged message may still ping everyone either one could
+    public OutboundMessage withMentionsOf(OutboundMessage other) {
+        if (other.mentionedUserIds.isEmpty() || this.mentionedUserIds.containsAll(other.mentionedUserIds)) {
+            return this;
+        }
+        Set<String> mentionedUserIds = new HashSet<>(this.mentionedUserIds);
+        mentionedUserIds.addAll(other.mentionedUserIds);
+        return new OutboundMessage(this.content, this.username, this.avatarUrl, Set.copyOf(mentionedUserIds));
+    }
+}
@@ -0,0 +1,294 @@
+package dev.riever.supersonic.transport;
+
+import org.slf4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Bounds what is handed to JDA and the webhooks at any time. Everything else waits here in one bounded queue per
+// priority class, and is dispatched highest class first as in-flight requests complete.
+public class OutboundScheduler {
+    public enum Priority { INTERACTION, CHAT, PRESENCE, STATUS }
+
+    public enum OverflowPolicy {
+        // Refuse the new item
+        REJECT("reject"),
+        // Evict the oldest queued item to make room
+        DROP_OLDEST("drop-oldest"),
+        // Merge the new message into the last queued one if possible, otherwise evict the oldest
+        COALESCE("coalesce");
+
+        private final String configName;
+
+        OverflowPolicy(String configName) {
+            this.configName = configName;
+        }
+
+        public static OverflowPolicy fromConfigName(String configName) {
+            for (OverflowPolicy policy : values()) {
+                if (policy.configName.equalsIgnoreCase(configName)) {
+                    return policy;
+                }
+            }
+            throw new IllegalArgumentException("Unknown overflow policy: " + configName);
+        }
+    }
+
+    private static final class Task {
+        final Supplier<CompletableFuture<?>> action;
+        final DiscordTransport transport;
+        final CompletableFuture<Object> result = new CompletableFuture<>();
+        OutboundMessage message;
+        // Guarded by the scheduler
+        boolean started = false;
+
+        Task(Supplier<CompletableFuture<?>> action, DiscordTransport transport, OutboundMessage message) {
+            this.action = action;
+            this.transport = transport;
+            this.message = message;
+        }
+
+        CompletableFuture<?> start() {
+            try {
+                return this.action != null ? this.action.get() : this.transport.send(this.message);
+            } catch (RuntimeException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+
+        void fail(String reason) {
+            this.result.completeExceptionally(new RejectedExecutionException(reason));
+        }
+    }
+
+    private static final class Lane {
+        final int capacity;
+        final OverflowPolicy policy;
+        final ArrayDeque<Task> queue = new ArrayDeque<>();
+        final AtomicLong dropped = new AtomicLong();
+        final AtomicLong delayed = new AtomicLong();
+
+        Lane(int capacity, OverflowPolicy policy) {
+            this.capacity = capacity;
+            this.policy = policy;
+        }
+    }
+
+    private final Lane[] lanes = new Lane[Priority.values().length];
+    private final int maxInFlight;
+    private final Logger logger;
+
+    // Guarded by this
+    private int inFlight = 0;
+    // Nothing is dispatched until the gateway is ready; messages wait in the bounded queues meanwhile
+    private boolean open = false;
+    private boolean closed = false;
+    // Set while a pump() runs, so that a completion inside it leaves the next dispatch to its loop instead of
+    // recursing, and so that only one thread dispatches at a time
+    private boolean pumping = false;
+
+    public OutboundScheduler(
+            int maxInFlight,
+            int interactionCapacity,
+            int chatCapacity,
+            OverflowPolicy chatPolicy,
+            int presenceCapacity,
+            OverflowPolicy presencePolicy,
+            Logger logger
+    ) {
+        this.maxInFlight = Math.max(2, maxInFlight);
+        this.lanes[Priority.INTERACTION.ordinal()] = new Lane(interactionCapacity, OverflowPolicy.REJECT);
+        this.lanes[Priority.CHAT.ordinal()] = new Lane(chatCapacity, chatPolicy);
+        this.lanes[Priority.PRESENCE.ordinal()] = new Lane(presenceCapacity, presencePolicy);
+        // Only ever the latest render of the status board is worth sending
+        this.lanes[Priority.STATUS.ordinal()] = new Lane(1, OverflowPolicy.DROP_OLDEST);
+        this.logger = logger;
+    }
+
+    // The returned future completes with the request, and fails if the item is dropped before it is sent
+    public CompletableFuture<?> submit(Priority priority, Supplier<CompletableFuture<?>> action) {
+        return this.enqueue(priority, new Task(action, null, null));
+    }
+
+    public CompletableFuture<?> submit(Priority priority, OutboundMessage message, DiscordTransport transport) {
+        return this.enqueue(priority, new Task(null, transport, message));
+    }
+
+    public void open() {
+        synchronized (this) {
+            if (this.closed) {
+                return;
+            }
+            this.open = true;
+        }
+        this.pump();
+    }
+
+    private CompletableFuture<?> enqueue(Priority priority, Task task) {
+        Lane lane = this.lanes[priority.ordinal()];
+        String refusedReason = null;
+        Task evicted = null;
+        Task mergedInto = null;
+        synchronized (this) {
+            if (this.closed) {
+                refusedReason = "The outbound scheduler is shut down";
+            } else if (lane.queue.size() >= lane.capacity) {
+                mergedInto = lane.policy == OverflowPolicy.COALESCE ? this.coalesce(lane, task) : null;
+                if (mergedInto == null) {
+                    lane.dropped.incrementAndGet();
+                    if (lane.policy == OverflowPolicy.REJECT || lane.queue.isEmpty()) {
+                        this.logger.warn("Outbound {} queue is full, dropping the new item", priority);
+                        refusedReason = "The outbound " + priority + " queue is full";
+                    } else {
+                        this.logger.debug("Outbound {} queue is full, dropped its oldest item", priority);
+                        evicted = lane.queue.poll();
+                    }
+                }
+            }
+            if (refusedReason == null && mergedInto == null) {
+                lane.queue.add(task);
+            }
+        }
+        if (refusedReason == null && mergedInto == null) {
+            this.pump();
+            synchronized (this) {
+                if (!task.started) {
+                    lane.delayed.incrementAndGet();
+                }
+            }
+        }
+        // Completed outside the lock, as callbacks may submit again
+        if (refusedReason != null) {
+            task.fail(refusedReason);
+        }
+        if (evicted != null) {
+            evicted.fail("Evicted from the full outbound " + priority + " queue");
+        }
+        if (mergedInto != null) {
+            mergedInto.result.whenComplete((result, error) -> complete(task, result, error));
+        }
+        return task.result;
+    }
+
+    // Returns the queued item the message was merged into, if any
+    private Task coalesce(Lane lane, Task task) {
+        Task last = lane.queue.peekLast();
+        if (last == null || last.message == null || task.message == null
+                || last.transport != task.transport || !last.message.hasSameAuthor(task.message)) {
+            return null;
+        }
+        String merged = last.message.content() + "\n" + task.message.content();
+        if (merged.length() > MessageBatcher.MAX_MESSAGE_LENGTH) {
+            return null;
+        }
+        last.message = last.message.withContent(merged).withMentionsOf(task.message);
+        return last;
+    }
+
+    // Called without holding this. Tasks are taken off the queues under the lock and started after releasing it, so
+    // no request or callback ever runs under it. A request that completes right away frees its slot and calls pump()
+    // again, which returns at once, and the loop here picks up the freed slot instead.
+    private void pump() {
+        synchronized (this) {
+            if (this.pumping) {
+                return;
+            }
+            this.pumping = true;
+        }
+        while (true) {
+            List<Task> tasks = new ArrayList<>();
+            synchronized (this) {
+                Task task;
+                while ((task = this.pollNext()) != null) {
+                    task.started = true;
+                    this.inFlight++;
+                    tasks.add(task);
+                }
+                // Checked and cleared together, so a slot freed meanwhile is seen either here or by its own pump()
+                if (tasks.isEmpty()) {
+                    this.pumping = false;
+                    return;
+                }
+            }
+            for (Task task : tasks) {
+                task.start().whenComplete((result, error) -> {
+                    if (error != null) {
+                        this.logger.error("Failed to send an outbound Discord request", error);
+                    }
+                    synchronized (this) {
+                        this.inFlight--;
+                    }
+                    complete(task, result, error);
+                    this.pump();
+                });
+            }
+        }
+    }
+
+    private static void complete(Task task, Object result, Throwable error) {
+        if (error != null) {
+            task.result.completeExceptionally(error);
+        } else {
+            task.result.complete(result);
+        }
+    }
+
+    // One slot is always kept for interactions, so rate limited chat can never hold up a 3-second deadline
+    private Task pollNext() {
+        if (!this.open) {
+            return null;
+        }
+        for (int i = 0; i < this.lanes.length; i++) {
+            int limit = i == Priority.INTERACTION.ordinal() ? this.maxInFlight : this.maxInFlight - 1;
+            if (this.inFlight >= limit) {
+                return null;
+            }
+            Task task = this.lanes[i].queue.poll();
+            if (task != null) {
+                return task;
+            }
+        }
+        return null;
+    }
+
+    // Hands whatever is still queued to JDA and the webhooks, which finish the requests they were given before
+    // shutting down. If the gateway never came up there is nothing to send with, so the queued items fail instead.
+    public void shutdown() {
+        List<Task> remaining = new ArrayList<>();
+        boolean flush;
+        synchronized (this) {
+            flush = this.open;
+            this.open = false;
+            this.closed = true;
+            for (Lane lane : this.lanes) {
+                remaining.addAll(lane.queue);
+                lane.queue.clear();
+            }
+        }
+        for (Task task : remaining) {
+            if (flush) {
+                task.start().whenComplete((result, error) -> complete(task, result, error));
+            } else {
+                task.fail("The outbound scheduler is shut down");
+            }
+        }
+    }
+
+    public synchronized int getQueueDepth(Priority priority) {
+        return this.lanes[priority.ordinal()].queue.size();
+    }
+
+    public long getDroppedCount(Priority priority) {
+        return this.lanes[priority.ordinal()].dropped.get();
+    }
+
+    // Items that could not be sent right away and had to wait in the queue
+    public long getDelayedCount(Priority priority) {
+        return this.lanes[priority.ordinal()].delayed.get();
+    }
+}
@@ -0,0 +1,185 @@
+package dev.riever.supersonic.transport;
+
+import net.dv8tion.jda.api.utils.data.DataArray;
+import net.dv8tion.jda.api.utils.data.DataObject;
+import org.slf4j.Logger;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Posts messages through a pool of channel webhooks, each with its own rate limit bucket. Every author is pinned
+// to one webhook so that their messages stay in order, while different authors are spread across the pool.
+public class WebhookPoolTransport implements DiscordTransport {
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(10);
+
+    private record Pending(OutboundMessage message, CompletableFuture<Void> future) {}
+
+    private static final class Webhook {
+        final URI uri;
+        final ArrayDeque<Pending> queue = new ArrayDeque<>();
+        boolean busy = false;
+        long blockedUntilNanos = 0;
+
+        Webhook(URI uri) {
+            this.uri = uri;
+        }
+    }
+
+    private final List<Webhook> webhooks;
+    private final HttpClient httpClient;
+    private final ScheduledExecutorService scheduler;
+    private final Logger logger;
+
+    public WebhookPoolTransport(List<String> webhookUrls, Logger logger) {
+        if (webhookUrls.isEmpty()) {
+            throw new IllegalArgumentException("The webhook transport needs at least one webhook URL");
+        }
+        this.webhooks = new ArrayList<>(webhookUrls.size());
+        for (String url : webhookUrls) {
+            this.webhooks.add(new Webhook(URI.create(url)));
+        }
+        this.httpClient = HttpClient.newBuilder()
+                .connectTimeout(REQUEST_TIMEOUT)
+                .build();
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "supersonic-webhooks");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.logger = logger;
+    }
+
+    @Override
+    public boolean supportsAuthors() {
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<?> send(OutboundMessage message) {
+        String key = message.hasAuthor() ? message.username() : "";
+        Webhook webhook = this.webhooks.get(Math.floorMod(key.hashCode(), this.webhooks.size()));
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (webhook) {
+            webhook.queue.add(new Pending(message, future));
+        }
+        this.drain(webhook);
+        return future;
+    }
+
+    // Sends the head of the webhook's queue unless a request is already in flight or the bucket is exhausted
+    private void drain(Webhook webhook) {
+        Pending pending;
+        synchronized (webhook) {
+            if (webhook.busy || webhook.queue.isEmpty()) {
+                return;
+            }
+            long waitNanos = webhook.blockedUntilNanos - System.nanoTime();
+            if (waitNanos > 0) {
+                webhook.busy = true;
+                this.scheduler.schedule(() -> {
+                    synchronized (webhook) {
+                        webhook.busy = false;
+                    }
+                    this.drain(webhook);
+                }, waitNanos, TimeUnit.NANOSECONDS);
+                return;
+            }
+            webhook.busy = true;
+            pending = webhook.queue.peek();
+        }
+        HttpRequest request = HttpRequest.newBuilder(webhook.uri)
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(this.toJson(pending.message())))
+                .build();
+        this.httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString())
+                .whenComplete((response, error) -> this.onResponse(webhook, response, error));
+    }
+
+    private void onResponse(Webhook webhook, HttpResponse<String> response, Throwable error) {
+        Pending done = null;
+        synchronized (webhook) {
+            webhook.busy = false;
+            if (error != null) {
+                this.logger.error("Failed to post a message through webhook {}", this.describe(webhook), error);
+                done = webhook.queue.poll();
+            } else if (response.statusCode() == 429) {
+                // Keep the message at the head of the queue and retry it once the bucket resets
+                webhook.blockedUntilNanos = System.nanoTime() + this.retryAfterNanos(response);
+            } else {
+                if (response.statusCode() / 100 != 2) {
+                    this.logger.error("Webhook {} rejected a message with status {}: {}",
+                            this.describe(webhook), response.statusCode(), response.body());
+                }
+                done = webhook.queue.poll();
+                String remaining = response.headers().firstValue("X-RateLimit-Remaining").orElse(null);
+                if ("0".equals(remaining)) {
+                    webhook.blockedUntilNanos = System.nanoTime() + this.resetAfterNanos(response);
+                }
+            }
+        }
+        // Completed outside the lock, as completion may hand the next message to this transport
+        if (done != null) {
+            if (error != null) {
+                done.future().completeExceptionally(error);
+            } else {
+                done.future().complete(null);
+            }
+        }
+        this.drain(webhook);
+    }
+
+    private long retryAfterNanos(HttpResponse<String> response) {
+        try {
+            double seconds = DataObject.fromJson(response.body()).getDouble("retry_after");
+            return (long) (seconds * 1_000_000_000L);
+        } catch (RuntimeException e) {
+            return this.resetAfterNanos(response);
+        }
+    }
+
+    private long resetAfterNanos(HttpResponse<String> response) {
+        String resetAfter = response.headers().firstValue("X-RateLimit-Reset-After").orElse("1");
+        try {
+            return (long) (Double.parseDouble(resetAfter) * 1_000_000_000L);
+        } catch (NumberFormatException e) {
+            return TimeUnit.SECONDS.toNanos(1);
+        }
+    }
+
+    private String toJson(OutboundMessage message) {
+        DataObject body = DataObject.empty().put("content", message.content());
+        if (message.username() != null) {
+            body.put("username", message.username());
+        }
+        if (message.avatarUrl() != null) {
+            body.put("avatar_url", message.avatarUrl());
+        }
+        // Players write the content, so nothing they type may ping @everyone, @here or a role. Only the members
+        // resolved from their @mentions are pinged.
+        body.put("allowed_mentions", DataObject.empty()
+                .put("parse", DataArray.empty())
+                .put("users", DataArray.fromCollection(message.mentionedUserIds())));
+        return body.toString();
+    }
+
+    // Webhook URLs embed their token, which should not end up in the logs
+    private String describe(Webhook webhook) {
+        return "#" + this.webhooks.indexOf(webhook);
+    }
+
+    @Override
+    public void shutdown() {
+        this.scheduler.shutdown();
+    }
+}
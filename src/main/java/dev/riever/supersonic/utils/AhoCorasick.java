@@ -0,0 +1,134 @@
+package dev.riever.supersonic.utils;
+
+import java.util.ArrayDeque;
+
+public final class AhoCorasick<T> {
+    public static final int ROOT = 0;
+    public static final int NONE = -1;
+
+    // State s owns the edges [edgeStart[s], edgeStart[s + 1]), sorted by key
+    private final int[] edgeStart;
+    private final char[] edgeKeys;
+    private final int[] edgeTargets;
+    private final int[] fail;
+    private final int[] output;
+    private final int[] depth;
+    private final Object[] values;
+
+    private AhoCorasick(int stateCount) {
+        this.edgeStart = new int[stateCount + 1];
+        this.edgeKeys = new char[Math.max(0, stateCount - 1)];
+        this.edgeTargets = new int[Math.max(0, stateCount - 1)];
+        this.fail = new int[stateCount];
+        this.output = new int[stateCount];
+        this.depth = new int[stateCount];
+        this.values = new Object[stateCount];
+    }
+
+    public static <T> AhoCorasick<T> build(Trie<T> trie) {
+        AhoCorasick<T> automaton = new AhoCorasick<>(countNodes(trie.root));
+
+        // Number the states in BFS order so that every state's edges are contiguous
+        ArrayDeque<TrieNode<T>> queue = new ArrayDeque<>();
+        queue.add(trie.root);
+        int state = 0;
+        int nextState = 1;
+        while (!queue.isEmpty()) {
+            TrieNode<T> node = queue.poll();
+            automaton.values[state] = node.value;
+            automaton.edgeStart[state] = nextState - 1;
+            for (int i = 0; i < node.size; i++) {
+                automaton.edgeKeys[nextState - 1] = node.keys[i];
+                automaton.edgeTargets[nextState - 1] = nextState;
+                automaton.depth[nextState] = automaton.depth[state] + 1;
+                queue.add(node.children[i]);
+                nextState++;
+            }
+            state++;
+        }
+        automaton.edgeStart[state] = nextState - 1;
+
+        // Failure and output links, also in BFS order so parents are always done before their children
+        automaton.fail[ROOT] = ROOT;
+        automaton.output[ROOT] = automaton.values[ROOT] != null ? ROOT : NONE;
+        for (int parent = 0; parent < state; parent++) {
+            for (int edge = automaton.edgeStart[parent]; edge < automaton.edgeStart[parent + 1]; edge++) {
+                int child = automaton.edgeTargets[edge];
+                int fallback = ROOT;
+                if (parent != ROOT) {
+                    fallback = automaton.next(automaton.fail[parent], automaton.edgeKeys[edge]);
+                }
+                automaton.fail[child] = fallback;
+                automaton.output[child] = automaton.values[child] != null ? child : automaton.output[fallback];
+            }
+        }
+        return automaton;
+    }
+
+    private static int countNodes(TrieNode<?> root) {
+        int count = 0;
+        ArrayDeque<TrieNode<?>> stack = new ArrayDeque<>();
+        stack.push(root);
+        while (!stack.isEmpty()) {
+            TrieNode<?> node = stack.pop();
+            count++;
+            for (int i = 0; i < node.size; i++) {
+                stack.push(node.children[i]);
+            }
+        }
+        return count;
+    }
+
+    private int edge(int state, char c) {
+        int low = this.edgeStart[state];
+        int high = this.edgeStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char key = this.edgeKeys[mid];
+            if (key < c) {
+                low = mid + 1;
+            } else if (key > c) {
+                high = mid - 1;
+            } else {
+                return this.edgeTargets[mid];
+            }
+        }
+        return NONE;
+    }
+
+    public int next(int state, char c) {
+        while (true) {
+            int target = this.edge(state, c);
+            if (target != NONE) {
+                return target;
+            }
+            if (state == ROOT) {
+                return ROOT;
+            }
+            state = this.fail[state];
+        }
+    }
+
+    // The longest key ending at this state, or NONE
+    public int output(int state) {
+        return this.output[state];
+    }
+
+    // The next shorter key sharing the end position of the given output state, or NONE
+    public int nextOutput(int outputState) {
+        return outputState == ROOT ? NONE : this.output[this.fail[outputState]];
+    }
+
+    public int depth(int state) {
+        return this.depth[state];
+    }
+
+    @SuppressWarnings("unchecked")
+    public T value(int state) {
+        return (T) this.values[state];
+    }
+
+    public int size() {
+        return this.fail.length;
+    }
+}
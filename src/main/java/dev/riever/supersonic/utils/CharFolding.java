@@ -0,0 +1,63 @@
+package dev.riever.supersonic.utils;
+
+import java.text.Normalizer;
+
+public enum CharFolding {
+    EXACT("exact"),
+    IGNORE_CASE("ignore-case"),
+    UNICODE("unicode-fold");
+
+    private final String configName;
+
+    CharFolding(String configName) {
+        this.configName = configName;
+    }
+
+    public String getConfigName() {
+        return this.configName;
+    }
+
+    public static CharFolding fromConfigName(String configName) {
+        for (CharFolding folding : values()) {
+            if (folding.configName.equalsIgnoreCase(configName)) {
+                return folding;
+            }
+        }
+        throw new IllegalArgumentException("Unknown mention matching mode: " + configName);
+    }
+
+    public char fold(char c) {
+        return switch (this) {
+            case EXACT -> c;
+            case IGNORE_CASE -> Character.toLowerCase(Character.toUpperCase(c));
+            case UNICODE -> UnicodeTable.TABLE[c];
+        };
+    }
+
+    public String fold(CharSequence text) {
+        char[] folded = new char[text.length()];
+        for (int i = 0; i < folded.length; i++) {
+            folded[i] = this.fold(text.charAt(i));
+        }
+        return new String(folded);
+    }
+
+    // Folds every BMP char to the lower-cased first char of its compatibility decomposition, so that
+    // e.g. an accented or full-width 'E' becomes 'e'. Folding char by char keeps match offsets in the original text.
+    private static final class UnicodeTable {
+        static final char[] TABLE = new char[Character.MAX_VALUE + 1];
+
+        static {
+            for (int c = 0; c <= Character.MAX_VALUE; c++) {
+                char folded = (char) c;
+                if (c >= 0x80 && !Character.isSurrogate(folded)) {
+                    String decomposed = Normalizer.normalize(String.valueOf(folded), Normalizer.Form.NFKD);
+                    if (!decomposed.isEmpty()) {
+                        folded = decomposed.charAt(0);
+                    }
+                }
+                TABLE[c] = Character.toLowerCase(Character.toUpperCase(folded));
+            }
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package dev.riever.supersonic.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Flood and duplicate checks for chat, one history per key. The times of the last accepted messages are kept in a
+// ring, which makes the sliding window exact, and the hashes of recent messages in a second ring to catch repeats.
+// Both rings have a fixed size, so a key costs the same however much it sends; keys are dropped with forget().
+public final class ChatFloodGuard<K> {
+    public enum Verdict {
+        ALLOWED,
+        RATE_LIMITED,
+        DUPLICATE
+    }
+
+    // Guarded by itself
+    private static final class History {
+        final long[] sentAtNanos;
+        int sentCount = 0;
+        int sentNext = 0;
+        final long[] hashes;
+        final long[] hashedAtNanos;
+        int hashCount = 0;
+        int hashNext = 0;
+
+        History(int maxMessages, int duplicateHistory) {
+            this.sentAtNanos = new long[maxMessages];
+            this.hashes = new long[duplicateHistory];
+            this.hashedAtNanos = new long[duplicateHistory];
+        }
+    }
+
+    private final int maxMessages;
+    private final long windowNanos;
+    private final int duplicateHistory;
+    private final long duplicateWindowNanos;
+    private final Map<K, History> histories = new ConcurrentHashMap<>();
+    private final AtomicLong rateLimited = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+
+    // A limit of 0 turns that check off
+    public ChatFloodGuard(int maxMessages, long windowMillis, int duplicateHistory, long duplicateWindowMillis) {
+        this.maxMessages = Math.max(0, maxMessages);
+        this.windowNanos = windowMillis * 1_000_000L;
+        this.duplicateHistory = Math.max(0, duplicateHistory);
+        this.duplicateWindowNanos = duplicateWindowMillis * 1_000_000L;
+    }
+
+    // Rejected messages are not recorded, so they neither use up the window nor refresh a duplicate
+    public Verdict check(K key, CharSequence message) {
+        long now = System.nanoTime();
+        long hash = hash(message);
+        History history = this.histories.computeIfAbsent(key, ignored -> new History(this.maxMessages, this.duplicateHistory));
+        synchronized (history) {
+            for (int i = 0; i < history.hashCount; i++) {
+                if (history.hashes[i] == hash && now - history.hashedAtNanos[i] < this.duplicateWindowNanos) {
+                    this.duplicates.incrementAndGet();
+                    return Verdict.DUPLICATE;
+                }
+            }
+            // Once the ring is full, the slot about to be overwritten holds the oldest of the last maxMessages sends
+            if (this.maxMessages > 0 && history.sentCount == this.maxMessages
+                    && now - history.sentAtNanos[history.sentNext] < this.windowNanos) {
+                this.rateLimited.incrementAndGet();
+                return Verdict.RATE_LIMITED;
+            }
+            if (this.maxMessages > 0) {
+                history.sentAtNanos[history.sentNext] = now;
+                history.sentNext = (history.sentNext + 1) % this.maxMessages;
+                history.sentCount = Math.min(history.sentCount + 1, this.maxMessages);
+            }
+            if (this.duplicateHistory > 0) {
+                history.hashes[history.hashNext] = hash;
+                history.hashedAtNanos[history.hashNext] = now;
+                history.hashNext = (history.hashNext + 1) % this.duplicateHistory;
+                history.hashCount = Math.min(history.hashCount + 1, this.duplicateHistory);
+            }
+            return Verdict.ALLOWED;
+        }
+    }
+
+    public void forget(K key) {
+        this.histories.remove(key);
+    }
+
+    public long getRateLimitedCount() {
+        return this.rateLimited.get();
+    }
+
+    public long getDuplicateCount() {
+        return this.duplicates.get();
+    }
+
+    public int size() {
+        return this.histories.size();
+    }
+
+    // FNV-1a over the message with case folded and runs of whitespace collapsed, so trivially altered repeats
+    // hash the same
+    private static long hash(CharSequence message) {
+        long h = 0xcbf29ce484222325L;
+        boolean started = false;
+        boolean pendingSpace = false;
+        for (int i = 0; i < message.length(); i++) {
+            char c = message.charAt(i);
+            if (Character.isWhitespace(c)) {
+                pendingSpace = started;
+                continue;
+            }
+            if (pendingSpace) {
+                h = (h ^ ' ') * 0x100000001b3L;
+                pendingSpace = false;
+            }
+            h = (h ^ Character.toLowerCase(c)) * 0x100000001b3L;
+            started = true;
+        }
+        return h;
+    }
+}
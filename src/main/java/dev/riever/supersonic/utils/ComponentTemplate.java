@@ -0,0 +1,123 @@
+package dev.riever.supersonic.utils;
+
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.ComponentLike;
+import net.kyori.adventure.text.TranslatableComponent;
+import net.kyori.adventure.text.event.ClickEvent;
+import net.kyori.adventure.text.event.HoverEvent;
+import net.kyori.adventure.text.minimessage.MiniMessage;
+import net.kyori.adventure.text.minimessage.tag.resolver.Placeholder;
+import net.kyori.adventure.text.minimessage.tag.resolver.TagResolver;
+import net.kyori.adventure.text.serializer.plain.PlainTextComponentSerializer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class ComponentTemplate {
+    private static final String SLOT_KEY_PREFIX = "supersonic.template.slot.";
+
+    // A compiled template is a tree where only the paths leading to placeholders are rebuilt on render.
+    // Subtrees without placeholders are kept as the immutable components MiniMessage produced and shared.
+    // Placeholders in hover text are compiled like the rest, while a click value is only a string, so placeholders
+    // in it are replaced with the plain text of their values.
+    private record Node(Component component, int slot, Node[] children, Node hoverText, String clickValue) {
+        boolean isStatic() {
+            return this.slot == -1 && this.children == null && this.hoverText == null && this.clickValue == null;
+        }
+    }
+
+    private final Node root;
+    private final String[] placeholders;
+
+    private ComponentTemplate(Node root, String[] placeholders) {
+        this.root = root;
+        this.placeholders = placeholders;
+    }
+
+    // The template is MiniMessage; placeholders are written as <name> and their values are passed to render()
+    // in the order of the given names
+    public static ComponentTemplate compile(String template, String... placeholders) {
+        TagResolver.Builder resolver = TagResolver.builder();
+        for (int i = 0; i < placeholders.length; i++) {
+            resolver.resolver(Placeholder.component(placeholders[i], Component.translatable(SLOT_KEY_PREFIX + i)));
+        }
+        Component parsed = MiniMessage.miniMessage().deserialize(template, resolver.build());
+        return new ComponentTemplate(compileNode(parsed, placeholders), placeholders.clone());
+    }
+
+    private static Node compileNode(Component component, String[] placeholders) {
+        Node hoverText = null;
+        HoverEvent<?> hoverEvent = component.hoverEvent();
+        if (hoverEvent != null && hoverEvent.action() == HoverEvent.Action.SHOW_TEXT) {
+            Node text = compileNode((Component) hoverEvent.value(), placeholders);
+            hoverText = text.isStatic() ? null : text;
+        }
+        ClickEvent clickEvent = component.clickEvent();
+        String clickValue = clickEvent != null && containsPlaceholder(clickEvent.value(), placeholders) ? clickEvent.value() : null;
+
+        if (component instanceof TranslatableComponent translatable && translatable.key().startsWith(SLOT_KEY_PREFIX)) {
+            int slot = Integer.parseInt(translatable.key().substring(SLOT_KEY_PREFIX.length()));
+            return new Node(component, slot, null, hoverText, clickValue);
+        }
+        List<Component> children = component.children();
+        Node[] childNodes = new Node[children.size()];
+        boolean childrenStatic = true;
+        for (int i = 0; i < childNodes.length; i++) {
+            childNodes[i] = compileNode(children.get(i), placeholders);
+            childrenStatic &= childNodes[i].isStatic();
+        }
+        if (childrenStatic) {
+            return new Node(component, -1, null, hoverText, clickValue);
+        }
+        return new Node(component.children(List.of()), -1, childNodes, hoverText, clickValue);
+    }
+
+    private static boolean containsPlaceholder(String value, String[] placeholders) {
+        for (String placeholder : placeholders) {
+            if (value.contains("<" + placeholder + ">")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public Component render(ComponentLike... values) {
+        return this.renderNode(this.root, values);
+    }
+
+    private Component renderNode(Node node, ComponentLike[] values) {
+        if (node.isStatic()) {
+            return node.component();
+        }
+        Component rendered;
+        if (node.slot() != -1) {
+            Component value = values[node.slot()].asComponent();
+            rendered = node.component().style().isEmpty() ? value : value.applyFallbackStyle(node.component().style());
+        } else if (node.children() != null) {
+            List<Component> children = new ArrayList<>(node.children().length);
+            for (Node child : node.children()) {
+                children.add(this.renderNode(child, values));
+            }
+            rendered = node.component().children(children);
+        } else {
+            rendered = node.component();
+        }
+        if (node.hoverText() != null) {
+            rendered = rendered.hoverEvent(HoverEvent.showText(this.renderNode(node.hoverText(), values)));
+        }
+        if (node.clickValue() != null) {
+            rendered = rendered.clickEvent(ClickEvent.clickEvent(node.component().clickEvent().action(), this.fillIn(node.clickValue(), values)));
+        }
+        return rendered;
+    }
+
+    private String fillIn(String value, ComponentLike[] values) {
+        for (int i = 0; i < this.placeholders.length; i++) {
+            String tag = "<" + this.placeholders[i] + ">";
+            if (value.contains(tag)) {
+                value = value.replace(tag, PlainTextComponentSerializer.plainText().serialize(values[i].asComponent()));
+            }
+        }
+        return value;
+    }
+}
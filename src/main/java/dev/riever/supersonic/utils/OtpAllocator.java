@@ -0,0 +1,53 @@
+package dev.riever.supersonic.utils;
+
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Hands out 6-digit codes by running a counter through a keyed permutation of [0, 1000000). Consecutive codes look
+// random, but no code comes back before all others have been handed out, so there is nothing to retry.
+public final class OtpAllocator {
+    private static final int DIGITS = 6;
+    private static final int HALF = 1000;
+    private static final int SPACE = HALF * HALF;
+    private static final int ROUNDS = 4;
+
+    private final int[] roundKeys = new int[ROUNDS];
+    private final AtomicLong counter;
+
+    public OtpAllocator(Random random) {
+        for (int i = 0; i < ROUNDS; i++) {
+            this.roundKeys[i] = random.nextInt();
+        }
+        this.counter = new AtomicLong(random.nextInt(SPACE));
+    }
+
+    public String next() {
+        int value = this.permute((int) (this.counter.getAndIncrement() % SPACE));
+        char[] digits = new char[DIGITS];
+        for (int i = DIGITS - 1; i >= 0; i--) {
+            digits[i] = (char) ('0' + value % 10);
+            value /= 10;
+        }
+        return new String(digits);
+    }
+
+    // A Feistel network over the two 3-digit halves, which is a bijection whatever the round function
+    private int permute(int value) {
+        int left = value / HALF;
+        int right = value % HALF;
+        for (int key : this.roundKeys) {
+            int next = (left + round(right, key)) % HALF;
+            left = right;
+            right = next;
+        }
+        return left * HALF + right;
+    }
+
+    private static int round(int half, int key) {
+        int h = (half ^ key) * 0x9e3779b1;
+        h ^= h >>> 15;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        return Math.floorMod(h, HALF);
+    }
+}
@@ -0,0 +1,70 @@
+package dev.riever.supersonic.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public final class TextTemplate {
+    // literals[i] precedes the placeholder slots[i]; the last literal follows the last placeholder
+    private final String[] literals;
+    private final int[] slots;
+    private final int literalLength;
+
+    private TextTemplate(String[] literals, int[] slots) {
+        this.literals = literals;
+        this.slots = slots;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    // Placeholders are written as {name}; values are passed to render() in the order of the given names
+    public static TextTemplate compile(String template, String... placeholders) {
+        List<String> literals = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        int index = 0;
+        while (index < template.length()) {
+            char c = template.charAt(index);
+            int slot = c == '{' ? matchPlaceholder(template, index, placeholders) : -1;
+            if (slot == -1) {
+                literal.append(c);
+                index++;
+                continue;
+            }
+            literals.add(literal.toString());
+            literal.setLength(0);
+            slots.add(slot);
+            index += placeholders[slot].length() + 2;
+        }
+        literals.add(literal.toString());
+        return new TextTemplate(
+                literals.toArray(new String[0]),
+                slots.stream().mapToInt(Integer::intValue).toArray()
+        );
+    }
+
+    private static int matchPlaceholder(String template, int index, String[] placeholders) {
+        for (int i = 0; i < placeholders.length; i++) {
+            String name = placeholders[i];
+            int end = index + name.length() + 1;
+            if (end < template.length() && template.charAt(end) == '}' && template.startsWith(name, index + 1)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public String render(String... values) {
+        int length = this.literalLength;
+        for (int slot : this.slots) {
+            length += values[slot].length();
+        }
+        StringBuilder builder = new StringBuilder(length);
+        for (int i = 0; i < this.slots.length; i++) {
+            builder.append(this.literals[i]).append(values[this.slots[i]]);
+        }
+        return builder.append(this.literals[this.slots.length]).toString();
+    }
+}
@@ -0,0 +1,62 @@
+package dev.riever.supersonic.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// A hashed timing wheel: items are dropped into the bucket of the tick they are due at, and each advance only looks
+// at the buckets of the ticks that passed. Items due more than one revolution ahead share a bucket with nearer ones
+// and are skipped until their tick comes around.
+public final class TimingWheel<T> {
+    private record Timeout<T>(T item, long deadlineTick) {}
+
+    private final long tickMillis;
+    private final List<Timeout<T>>[] buckets;
+    private final int mask;
+    private final Consumer<T> onExpire;
+
+    // Guarded by this; the first tick not yet processed
+    private long nextTick;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long tickMillis, int slots, Consumer<T> onExpire) {
+        int capacity = Integer.highestOneBit(Math.max(1, slots - 1)) << 1;
+        this.tickMillis = tickMillis;
+        this.buckets = (List<Timeout<T>>[]) new List<?>[capacity];
+        for (int i = 0; i < capacity; i++) {
+            this.buckets[i] = new ArrayList<>();
+        }
+        this.mask = capacity - 1;
+        this.onExpire = onExpire;
+        this.nextTick = Math.floorDiv(System.currentTimeMillis(), tickMillis);
+    }
+
+    // The item expires on the first advance at or after the deadline
+    public synchronized void schedule(T item, long deadlineMillis) {
+        long tick = Math.max(this.nextTick, -Math.floorDiv(-deadlineMillis, this.tickMillis));
+        this.buckets[(int) (tick & this.mask)].add(new Timeout<>(item, tick));
+    }
+
+    public void advance(long nowMillis) {
+        List<T> expired = new ArrayList<>();
+        synchronized (this) {
+            long nowTick = Math.floorDiv(nowMillis, this.tickMillis);
+            // After a stall of more than a revolution, every bucket is visited once
+            long ticks = Math.min(nowTick - this.nextTick + 1, this.mask + 1);
+            for (long i = 0; i < ticks; i++) {
+                this.buckets[(int) ((this.nextTick + i) & this.mask)].removeIf(timeout -> {
+                    if (timeout.deadlineTick() > nowTick) {
+                        return false;
+                    }
+                    expired.add(timeout.item());
+                    return true;
+                });
+            }
+            this.nextTick = Math.max(this.nextTick, nowTick + 1);
+        }
+        // Called outside the lock, so the callback may schedule again
+        for (T item : expired) {
+            this.onExpire.accept(item);
+        }
+    }
+}
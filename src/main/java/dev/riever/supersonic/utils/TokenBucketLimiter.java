@@ -0,0 +1,67 @@
+package dev.riever.supersonic.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+// One token bucket per key, kept in an LRU map of bounded size. A key that keeps hitting its limit stays recently
+// used, so the keys evicted under pressure are the idle ones, whose buckets would have refilled anyway.
+public final class TokenBucketLimiter<K> {
+    private static final class Bucket {
+        double tokens;
+        long refilledAtNanos;
+
+        Bucket(double tokens, long refilledAtNanos) {
+            this.tokens = tokens;
+            this.refilledAtNanos = refilledAtNanos;
+        }
+    }
+
+    private final double burst;
+    private final double tokensPerNano;
+    private final int maxKeys;
+    private final LinkedHashMap<K, Bucket> buckets;
+    private final AtomicLong rejected = new AtomicLong();
+
+    public TokenBucketLimiter(int burst, double tokensPerMinute, int maxKeys) {
+        this.burst = burst;
+        this.tokensPerNano = tokensPerMinute / 60_000_000_000.0;
+        this.maxKeys = maxKeys;
+        // Access order, so the eldest entry is always the least recently used one
+        this.buckets = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Bucket> eldest) {
+                return this.size() > TokenBucketLimiter.this.maxKeys;
+            }
+        };
+    }
+
+    public boolean tryAcquire(K key) {
+        long now = System.nanoTime();
+        synchronized (this.buckets) {
+            Bucket bucket = this.buckets.get(key);
+            if (bucket == null) {
+                this.buckets.put(key, new Bucket(this.burst - 1, now));
+                return true;
+            }
+            bucket.tokens = Math.min(this.burst, bucket.tokens + (now - bucket.refilledAtNanos) * this.tokensPerNano);
+            bucket.refilledAtNanos = now;
+            if (bucket.tokens >= 1) {
+                bucket.tokens -= 1;
+                return true;
+            }
+        }
+        this.rejected.incrementAndGet();
+        return false;
+    }
+
+    public long getRejectedCount() {
+        return this.rejected.get();
+    }
+
+    public int size() {
+        synchronized (this.buckets) {
+            return this.buckets.size();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package dev.riever.supersonic.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+public final class TopKPrefixIndex<T> {
+    // States are numbered in preorder, so a state's values always come before those of its subtree
+    private final int[] edgeStart;
+    private final int[] edgeCount;
+    private final char[] edgeKeys;
+    private final int[] edgeTargets;
+    private final Object[] values;
+    private final long[] scores;
+    // Best states of each subtree, highest score first, ties broken by key order
+    private final int[][] topK;
+    private int nextState;
+    private int nextEdge;
+
+    private TopKPrefixIndex(int stateCount) {
+        this.edgeStart = new int[stateCount];
+        this.edgeCount = new int[stateCount];
+        this.edgeKeys = new char[Math.max(0, stateCount - 1)];
+        this.edgeTargets = new int[Math.max(0, stateCount - 1)];
+        this.values = new Object[stateCount];
+        this.scores = new long[stateCount];
+        this.topK = new int[stateCount][];
+    }
+
+    public static <T> TopKPrefixIndex<T> build(Trie<T> trie, int k, ToLongFunction<? super T> score) {
+        TopKPrefixIndex<T> index = new TopKPrefixIndex<>(countNodes(trie.root));
+        index.flatten(trie.root, score);
+
+        int[] candidates = new int[k + 1];
+        for (int state = index.values.length - 1; state >= 0; state--) {
+            int size = 0;
+            if (index.values[state] != null) {
+                candidates = index.offer(candidates, size++, state);
+            }
+            for (int edge = index.edgeStart[state]; edge < index.edgeStart[state] + index.edgeCount[state]; edge++) {
+                for (int candidate : index.topK[index.edgeTargets[edge]]) {
+                    candidates = index.offer(candidates, size++, candidate);
+                }
+            }
+            index.topK[state] = index.selectTop(candidates, size, k);
+        }
+        return index;
+    }
+
+    private static int countNodes(TrieNode<?> node) {
+        int count = 1;
+        for (int i = 0; i < node.size; i++) {
+            count += countNodes(node.children[i]);
+        }
+        return count;
+    }
+
+    private void flatten(TrieNode<T> node, ToLongFunction<? super T> score) {
+        int state = this.nextState++;
+        this.values[state] = node.value;
+        this.scores[state] = node.value != null ? score.applyAsLong(node.value) : 0;
+        this.edgeStart[state] = this.nextEdge;
+        this.edgeCount[state] = node.size;
+        this.nextEdge += node.size;
+        for (int i = 0; i < node.size; i++) {
+            int edge = this.edgeStart[state] + i;
+            this.edgeKeys[edge] = node.keys[i];
+            this.edgeTargets[edge] = this.nextState;
+            this.flatten(node.children[i], score);
+        }
+    }
+
+    private int[] offer(int[] candidates, int size, int state) {
+        if (size == candidates.length) {
+            candidates = Arrays.copyOf(candidates, size * 2);
+        }
+        candidates[size] = state;
+        return candidates;
+    }
+
+    private boolean ranksBefore(int a, int b) {
+        if (this.scores[a] != this.scores[b]) {
+            return this.scores[a] > this.scores[b];
+        }
+        return a < b;
+    }
+
+    // Partial selection sort, k is small
+    private int[] selectTop(int[] candidates, int size, int k) {
+        int count = Math.min(size, k);
+        for (int i = 0; i < count; i++) {
+            int best = i;
+            for (int j = i + 1; j < size; j++) {
+                if (this.ranksBefore(candidates[j], candidates[best])) {
+                    best = j;
+                }
+            }
+            int swap = candidates[i];
+            candidates[i] = candidates[best];
+            candidates[best] = swap;
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    private int child(int state, char c) {
+        int low = this.edgeStart[state];
+        int high = low + this.edgeCount[state] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char key = this.edgeKeys[mid];
+            if (key < c) {
+                low = mid + 1;
+            } else if (key > c) {
+                high = mid - 1;
+            } else {
+                return this.edgeTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<T> complete(CharSequence prefix, CharFolding folding) {
+        int state = 0;
+        for (int i = 0; i < prefix.length(); i++) {
+            state = this.child(state, folding.fold(prefix.charAt(i)));
+            if (state == -1) {
+                return List.of();
+            }
+        }
+        List<T> result = new ArrayList<>(this.topK[state].length);
+        for (int candidate : this.topK[state]) {
+            result.add((T) this.values[candidate]);
+        }
+        return result;
+    }
+}
@@ -1,6 +1,6 @@
 package dev.riever.supersonic.utils;
 
-import java.util.HashMap;
+import java.util.Arrays;
 
 public class Trie<T> {
     TrieNode<T> root;
@@ -9,71 +9,126 @@ public class Trie<T> {
         this.root = new TrieNode<>();
     }
 
-    public void insert(String word, T value) {
-        root.insert(word, value);
+    public void insert(CharSequence word, T value) {
+        TrieNode<T> node = this.root;
+        for (int i = 0; i < word.length(); i++) {
+            node = node.getOrCreateChild(word.charAt(i));
+        }
+        node.value = value;
     }
 
-    public void remove(String word) {
-        root.remove(word);
+    public void remove(CharSequence word) {
+        int length = word.length();
+        // Path of visited nodes, so that emptied branches can be pruned bottom-up without recursion
+        @SuppressWarnings("unchecked")
+        TrieNode<T>[] path = (TrieNode<T>[]) new TrieNode<?>[length + 1];
+        TrieNode<T> node = this.root;
+        path[0] = node;
+        for (int i = 0; i < length; i++) {
+            node = node.getChild(word.charAt(i));
+            if (node == null) {
+                return;
+            }
+            path[i + 1] = node;
+        }
+        node.value = null;
+        for (int i = length; i > 0 && path[i].isEmpty(); i--) {
+            path[i - 1].removeChild(word.charAt(i - 1));
+        }
     }
 
-    public T search(String word, boolean partial) {
-        return root.search(word, partial);
+    public T search(CharSequence word, boolean partial) {
+        return this.search(word, 0, word.length(), partial);
+    }
+
+    public T search(CharSequence word, int offset, int length, boolean partial) {
+        TrieNode<T> node = this.root;
+        int end = offset + length;
+        for (int i = offset; i < end; i++) {
+            if (partial && node.value != null) {
+                return node.value;
+            }
+            node = node.getChild(word.charAt(i));
+            if (node == null) {
+                return null;
+            }
+        }
+        return node.value;
     }
 }
 
 final class TrieNode<T> {
-    private final HashMap<Character, TrieNode<T>> children;
-    private T value;
+    private static final char[] NO_KEYS = new char[0];
+    private static final TrieNode<?>[] NO_CHILDREN = new TrieNode<?>[0];
 
+    // Children are kept in two parallel arrays sorted by key, searched with a binary search
+    char[] keys;
+    TrieNode<T>[] children;
+    int size;
+    T value;
+
+    @SuppressWarnings("unchecked")
     public TrieNode() {
-        this.children = new HashMap<>();
+        this.keys = NO_KEYS;
+        this.children = (TrieNode<T>[]) NO_CHILDREN;
+        this.size = 0;
         this.value = null;
     }
 
-    public void insert(String word, T value) {
-        if (word.isEmpty()) {
-            this.value = value;
-            return;
-        }
+    private int indexOf(char key) {
+        return Arrays.binarySearch(this.keys, 0, this.size, key);
+    }
 
-        char firstChar = word.charAt(0);
-        TrieNode<T> child = this.children.computeIfAbsent(firstChar, k -> new TrieNode<>());
-        child.insert(word.substring(1), value);
+    public TrieNode<T> getChild(char key) {
+        int index = this.indexOf(key);
+        return index >= 0 ? this.children[index] : null;
     }
 
-    public void remove(String word) {
-        if (word.isEmpty()) {
-            this.value = null;
-            return;
+    public TrieNode<T> getOrCreateChild(char key) {
+        int index = this.indexOf(key);
+        if (index >= 0) {
+            return this.children[index];
         }
+        int insertionPoint = -(index + 1);
+        if (this.size == this.keys.length) {
+            int capacity = Math.max(2, this.size + (this.size >> 1));
+            this.keys = Arrays.copyOf(this.keys, capacity);
+            this.children = Arrays.copyOf(this.children, capacity);
+        }
+        System.arraycopy(this.keys, insertionPoint, this.keys, insertionPoint + 1, this.size - insertionPoint);
+        System.arraycopy(this.children, insertionPoint, this.children, insertionPoint + 1, this.size - insertionPoint);
+        TrieNode<T> child = new TrieNode<>();
+        this.keys[insertionPoint] = key;
+        this.children[insertionPoint] = child;
+        this.size++;
+        return child;
+    }
 
-        char firstChar = word.charAt(0);
-        TrieNode<T> child = this.children.get(firstChar);
-        if (child != null) {
-            child.remove(word.substring(1));
-            if (child.value == null && child.children.isEmpty()) {
-                this.children.remove(firstChar);
-            }
+    public void removeChild(char key) {
+        int index = this.indexOf(key);
+        if (index < 0) {
+            return;
+        }
+        System.arraycopy(this.keys, index + 1, this.keys, index, this.size - index - 1);
+        System.arraycopy(this.children, index + 1, this.children, index, this.size - index - 1);
+        this.size--;
+        this.children[this.size] = null;
+        if (this.size == 0) {
+            this.clearChildren();
         }
     }
 
-    public boolean isWord() {
-        return this.value != null;
+    @SuppressWarnings("unchecked")
+    private void clearChildren() {
+        this.keys = NO_KEYS;
+        this.children = (TrieNode<T>[]) NO_CHILDREN;
     }
 
-    public T search(String word, boolean partial) {
-        if (word.isEmpty()) {
-            return this.value;
-        }
-        if (partial && this.value != null) {
-            return this.value;
-        }
-        char firstChar = word.charAt(0);
-        TrieNode<T> child = this.children.get(firstChar);
-        if (child == null) {
-            return null;
-        }
-        return child.search(word.substring(1), partial);
+    public boolean isEmpty() {
+        return this.value == null && this.size == 0;
+    }
+
+    public boolean isWord() {
+        return this.value != null;
     }
 }
@@ -0,0 +1,138 @@
+package dev.riever.supersonic.utils;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.UUID;
+
+// An open-addressing set of UUIDs stored as pairs of longs. Reads take no lock and allocate nothing; writes must
+// come from one thread at a time. Inserts go into the published table in place, while growing and removing build a
+// new table and publish it, so a reader only ever sees a stale or a current answer.
+public final class UuidSet {
+    private static final VarHandle SLOTS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final int MIN_CAPACITY = 16;
+
+    // Slot i holds the key at [2i] (most significant bits) and [2i + 1] (least significant bits). An empty slot has
+    // 0 as its most significant bits, which is written last. A valid UUID carries its version in those bits, so
+    // only hand-made keys can have them all zero; those are kept aside.
+    private static final class Table {
+        final long[] slots;
+        final int mask;
+        int size = 0;
+
+        Table(int capacity) {
+            this.slots = new long[capacity * 2];
+            this.mask = capacity - 1;
+        }
+    }
+
+    private volatile Table table = new Table(MIN_CAPACITY);
+    private volatile long[] zeroHighKeys = new long[0];
+
+    public boolean contains(UUID uuid) {
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (msb == 0) {
+            for (long key : this.zeroHighKeys) {
+                if (key == lsb) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        Table table = this.table;
+        long[] slots = table.slots;
+        for (int i = hash(msb, lsb) & table.mask; ; i = (i + 1) & table.mask) {
+            long slotMsb = (long) SLOTS.getAcquire(slots, 2 * i);
+            if (slotMsb == 0) {
+                return false;
+            }
+            if (slotMsb == msb && (long) SLOTS.getAcquire(slots, 2 * i + 1) == lsb) {
+                return true;
+            }
+        }
+    }
+
+    // Returns whether the set changed
+    public boolean add(UUID uuid) {
+        if (this.contains(uuid)) {
+            return false;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (msb == 0) {
+            long[] keys = Arrays.copyOf(this.zeroHighKeys, this.zeroHighKeys.length + 1);
+            keys[keys.length - 1] = lsb;
+            this.zeroHighKeys = keys;
+            return true;
+        }
+        Table table = this.table;
+        // Kept at most half full, so probe sequences stay short
+        if ((table.size + 1) * 2 > table.mask + 1) {
+            table = this.rebuild((table.mask + 1) * 2, 0, 0);
+            insert(table, msb, lsb);
+            this.table = table;
+        } else {
+            insert(table, msb, lsb);
+        }
+        return true;
+    }
+
+    // Returns whether the set changed
+    public boolean remove(UUID uuid) {
+        if (!this.contains(uuid)) {
+            return false;
+        }
+        long msb = uuid.getMostSignificantBits();
+        long lsb = uuid.getLeastSignificantBits();
+        if (msb == 0) {
+            long[] keys = new long[this.zeroHighKeys.length - 1];
+            int j = 0;
+            for (long key : this.zeroHighKeys) {
+                if (key != lsb) {
+                    keys[j++] = key;
+                }
+            }
+            this.zeroHighKeys = keys;
+            return true;
+        }
+        this.table = this.rebuild(this.table.mask + 1, msb, lsb);
+        return true;
+    }
+
+    public int size() {
+        return this.table.size + this.zeroHighKeys.length;
+    }
+
+    // Copies every key except the given one into a new table, which is not yet visible to readers
+    private Table rebuild(int capacity, long skipMsb, long skipLsb) {
+        Table old = this.table;
+        Table table = new Table(Math.max(MIN_CAPACITY, capacity));
+        for (int i = 0; i <= old.mask; i++) {
+            long msb = old.slots[2 * i];
+            long lsb = old.slots[2 * i + 1];
+            if (msb != 0 && !(msb == skipMsb && lsb == skipLsb)) {
+                insert(table, msb, lsb);
+            }
+        }
+        return table;
+    }
+
+    private static void insert(Table table, long msb, long lsb) {
+        int i = hash(msb, lsb) & table.mask;
+        while (table.slots[2 * i] != 0) {
+            i = (i + 1) & table.mask;
+        }
+        SLOTS.setRelease(table.slots, 2 * i + 1, lsb);
+        SLOTS.setRelease(table.slots, 2 * i, msb);
+        table.size++;
+    }
+
+    private static int hash(long msb, long lsb) {
+        long h = msb ^ Long.rotateLeft(lsb, 32);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}